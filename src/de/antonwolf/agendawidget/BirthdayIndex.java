@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2011 by Anton Wolf
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.antonwolf.agendawidget;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.util.Log;
+
+/**
+ * The birthdays of the coming year in all calendars. They are read by a
+ * dedicated query of the all-day instances at most once a day, or again
+ * after the calendars changed, so that refreshes only merge them into the
+ * agenda instead of detecting them in every scan. They are also persisted,
+ * so a new process reads them from the file of the day instead of querying
+ * them again. The file is trusted until the next day or the next change of
+ * the calendars; a change made while no process observed the calendars is
+ * seen on the next day.
+ * 
+ * @author Anton Wolf
+ */
+final class BirthdayIndex {
+	private final static String TAG = "AgendaWidget";
+	private final static String FILE_PREFIX = "birthdays_";
+	private final static String FILE_FORMAT = FILE_PREFIX + "%d.bin";
+	private final static int MAX_SIZE = 256 * 1024;
+	private final static long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+
+	/**
+	 * Birthdays recur every year, so this covers every one of them once
+	 */
+	final static int DAYS = 366;
+
+	private final static String[] PROJECTION = new String[] { "title",
+			"begin", "end", "startDay", "endDay", "calendar_id",
+			"eventLocation", "hasAlarm", "color" };
+	/**
+	 * Followed by today, see QueryPlanner for why it is not an argument
+	 */
+	private final static String SELECTION = "allDay = 1 AND endDay >= ";
+	private final static String SORT = "begin ASC, end DESC, title ASC";
+
+	private static int day = -1;
+	private static List<Event> birthdays;
+	/**
+	 * True if the calendars changed since the file was written
+	 */
+	private static boolean stale = false;
+
+	private BirthdayIndex() {
+	}
+
+	/**
+	 * @param today
+	 *            Julian day of today
+	 * @param todayStart
+	 *            The start of today in milliseconds
+	 * @return the birthdays that did not end before today, in query order
+	 */
+	static synchronized List<Event> get(final Context context,
+			final BirthdayMatcher matcher, final int today,
+			final long todayStart) {
+		if (birthdays != null && day == today)
+			return birthdays;
+
+		final String name = String.format(FILE_FORMAT, today);
+		List<Event> result = stale ? null : SnapshotFile.read(context, name,
+				MAX_SIZE);
+		if (result == null) {
+			result = query(context, matcher, today, todayStart);
+			SnapshotFile.write(context, name, result, MAX_SIZE);
+			stale = false;
+		}
+		for (final String file : context.fileList())
+			if (file.startsWith(FILE_PREFIX) && !file.equals(name))
+				context.deleteFile(file);
+
+		day = today;
+		birthdays = Collections.unmodifiableList(result);
+		return birthdays;
+	}
+
+	/**
+	 * Makes the next call of get() query the birthdays again
+	 */
+	static synchronized void invalidate() {
+		birthdays = null;
+		stale = true;
+	}
+
+	/**
+	 * @return a copy of the event that is marked as birthday and titled with
+	 *         the name of the person
+	 */
+	static Event toBirthday(final Event event, final String name) {
+		final Event birthday = event.copy();
+		birthday.isBirthday = true;
+		birthday.title = name;
+		return birthday;
+	}
+
+	private static List<Event> query(final Context context,
+			final BirthdayMatcher matcher, final int today,
+			final long todayStart) {
+		final List<Event> result = new ArrayList<Event>();
+		final Uri uri = Uri.parse(String.format(EventScanner.CURSOR_FORMAT,
+				todayStart - DAY_IN_MILLIS, todayStart + DAYS * DAY_IN_MILLIS));
+		final Cursor cursor = context.getContentResolver().query(uri,
+				PROJECTION, SELECTION + today, null, SORT);
+		if (cursor == null)
+			return result;
+		try {
+			while (cursor.moveToNext()) {
+				final String title = cursor.getString(0);
+				final String name = title == null ? null : matcher
+						.match(title);
+				if (name == null)
+					continue;
+				final Event birthday = new Event();
+				birthday.allDay = true;
+				birthday.isBirthday = true;
+				birthday.title = name;
+				birthday.startMillis = cursor.getLong(1);
+				birthday.endMillis = cursor.getLong(2);
+				birthday.startDay = cursor.getInt(3);
+				birthday.endDay = cursor.getInt(4);
+				birthday.calendarId = cursor.getInt(5);
+				final String location = cursor.getString(6);
+				birthday.location = location == null
+						|| location.trim().length() == 0 ? null : location;
+				birthday.hasAlarm = cursor.getInt(7) == 1;
+				birthday.color = cursor.getInt(8);
+				result.add(birthday);
+			}
+		} finally {
+			cursor.close();
+		}
+		Log.d(TAG, "BirthdayIndex: " + result.size() + " birthdays");
+		return result;
+	}
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2011 by Anton Wolf
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.antonwolf.agendawidget;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import android.util.SparseArray;
+
+/**
+ * Finds the name in birthday titles like "Anton's Birthday". Patterns of the
+ * forms "(.+)literal" and "literal(.+)" are matched together in one scan of
+ * the title, using an Aho-Corasick automaton over their literals; any other
+ * pattern falls back to a regular expression. Results are remembered per
+ * title, since birthdays recur with the same title every year.
+ * 
+ * @author Anton Wolf
+ */
+final class BirthdayMatcher {
+	private final static class Node {
+		final SparseArray<Node> children = new SparseArray<Node>();
+		Node fail;
+		/**
+		 * The next node on the fail chain that ends a literal
+		 */
+		Node output;
+		int[] patterns = new int[0];
+	}
+
+	private final static String GROUP = "(.+)";
+	private final static String METACHARACTERS = "\\^$.|?*+()[]{}";
+	/**
+	 * "." does not match these, so titles containing them are left to the
+	 * regular expressions
+	 */
+	private final static String LINE_TERMINATORS = "\n\r\u0085\u2028\u2029";
+	private final static int MAX_MEMO_SIZE = 512;
+	/**
+	 * Memoized for titles that are no birthdays; (.+) never matches ""
+	 */
+	private final static String NO_BIRTHDAY = "";
+
+	private final Pattern[] patterns;
+	/**
+	 * For each pattern: the length of its literal; or -1 if it is only
+	 * matched by its regular expression
+	 */
+	private final int[] literalLengths;
+	/**
+	 * For each pattern: true for "(.+)literal", false for "literal(.+)"
+	 */
+	private final boolean[] suffixes;
+	private final Node root = new Node();
+
+	/**
+	 * For each pattern: where the group ends ("(.+)literal") or begins
+	 * ("literal(.+)") in the current title; or -1
+	 */
+	private final int[] groupBounds;
+	private final Map<String, String> memo = new HashMap<String, String>();
+
+	/**
+	 * @param patterns
+	 *            Regular expressions with one group for the name, in order of
+	 *            precedence; duplicates are ignored
+	 */
+	BirthdayMatcher(final String[]... patterns) {
+		final List<String> unique = new ArrayList<String>();
+		for (final String[] strings : patterns)
+			for (final String pattern : strings)
+				if (!unique.contains(pattern))
+					unique.add(pattern);
+
+		final int count = unique.size();
+		this.patterns = new Pattern[count];
+		literalLengths = new int[count];
+		suffixes = new boolean[count];
+		groupBounds = new int[count];
+		for (int i = 0; i < count; i++) {
+			final String pattern = unique.get(i);
+			this.patterns[i] = Pattern.compile(pattern);
+			String literal = null;
+			if (pattern.startsWith(GROUP)) {
+				literal = parseLiteral(pattern.substring(GROUP.length()));
+				suffixes[i] = true;
+			} else if (pattern.endsWith(GROUP))
+				literal = parseLiteral(pattern.substring(0, pattern.length()
+						- GROUP.length()));
+			literalLengths[i] = literal == null ? -1 : literal.length();
+			if (literal != null)
+				add(literal, i);
+		}
+		link();
+	}
+
+	/**
+	 * @return the name of the person whose birthday the title denotes, or null
+	 */
+	synchronized String match(final String title) {
+		String name = memo.get(title);
+		if (name == null) {
+			name = scan(title);
+			if (memo.size() >= MAX_MEMO_SIZE)
+				memo.clear();
+			memo.put(title, name == null ? NO_BIRTHDAY : name);
+		}
+		return name == NO_BIRTHDAY ? null : name;
+	}
+
+	private String scan(final String title) {
+		final int length = title.length();
+		boolean multiline = false;
+		for (int i = 0; i < LINE_TERMINATORS.length(); i++)
+			multiline |= title.indexOf(LINE_TERMINATORS.charAt(i)) != -1;
+
+		if (!multiline) {
+			for (int i = 0; i < groupBounds.length; i++)
+				groupBounds[i] = -1;
+			Node node = root;
+			for (int i = 0; i < length; i++) {
+				final char c = title.charAt(i);
+				while (node != root && node.children.get(c) == null)
+					node = node.fail;
+				final Node next = node.children.get(c);
+				node = next == null ? root : next;
+				for (Node out = node; out != null; out = out.output)
+					for (final int pattern : out.patterns)
+						found(pattern, i + 1, length);
+			}
+		}
+
+		for (int i = 0; i < patterns.length; i++) {
+			if (multiline || literalLengths[i] == -1) {
+				final Matcher matcher = patterns[i].matcher(title);
+				if (matcher.find())
+					return matcher.group(1);
+			} else if (groupBounds[i] != -1)
+				return suffixes[i] ? title.substring(0, groupBounds[i])
+						: title.substring(groupBounds[i]);
+		}
+		return null;
+	}
+
+	/**
+	 * Records the literal of a pattern ending at end, keeping the match that
+	 * Matcher.find() would report: the last literal preceded by at least one
+	 * character for "(.+)literal", the first literal followed by at least one
+	 * character for "literal(.+)".
+	 */
+	private void found(final int pattern, final int end, final int length) {
+		if (suffixes[pattern]) {
+			final int start = end - literalLengths[pattern];
+			if (start >= 1)
+				groupBounds[pattern] = start;
+		} else if (groupBounds[pattern] == -1 && end < length)
+			groupBounds[pattern] = end;
+	}
+
+	/**
+	 * @return the text matched by the regular expression, or null if it
+	 *         contains anything but plain and escaped characters
+	 */
+	private static String parseLiteral(final String regex) {
+		final StringBuilder literal = new StringBuilder(regex.length());
+		for (int i = 0; i < regex.length(); i++) {
+			char c = regex.charAt(i);
+			if (c == '\\') {
+				if (++i == regex.length())
+					return null;
+				c = regex.charAt(i);
+				if (Character.isLetterOrDigit(c))
+					return null; // character classes like \d
+			} else if (METACHARACTERS.indexOf(c) != -1)
+				return null;
+			literal.append(c);
+		}
+		return literal.length() == 0 ? null : literal.toString();
+	}
+
+	private void add(final String literal, final int pattern) {
+		Node node = root;
+		for (int i = 0; i < literal.length(); i++) {
+			Node child = node.children.get(literal.charAt(i));
+			if (child == null) {
+				child = new Node();
+				node.children.put(literal.charAt(i), child);
+			}
+			node = child;
+		}
+		final int[] patterns = new int[node.patterns.length + 1];
+		System.arraycopy(node.patterns, 0, patterns, 0, node.patterns.length);
+		patterns[node.patterns.length] = pattern;
+		node.patterns = patterns;
+	}
+
+	/**
+	 * Computes the fail and output links breadth first
+	 */
+	private void link() {
+		final List<Node> queue = new ArrayList<Node>();
+		root.fail = root;
+		for (int i = 0; i < root.children.size(); i++) {
+			final Node child = root.children.valueAt(i);
+			child.fail = root;
+			queue.add(child);
+		}
+		for (int head = 0; head < queue.size(); head++) {
+			final Node node = queue.get(head);
+			for (int i = 0; i < node.children.size(); i++) {
+				final int c = node.children.keyAt(i);
+				final Node child = node.children.valueAt(i);
+				Node fail = node.fail;
+				while (fail != root && fail.children.get(c) == null)
+					fail = fail.fail;
+				final Node target = fail.children.get(c);
+				child.fail = target == null || target == child ? root : target;
+				child.output = child.fail.patterns.length > 0 ? child.fail
+						: child.fail.output;
+				queue.add(child);
+			}
+		}
+	}
+}
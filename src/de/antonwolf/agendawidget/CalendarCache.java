@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2011 by Anton Wolf
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.antonwolf.agendawidget;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.util.Log;
+
+/**
+ * Process wide copy of the calendars table. It is queried once and only
+ * queried again after the {@link CalendarObserver} of the
+ * {@link ObserverRegistry} notified a change of the provider. While no
+ * widget is alive there is no observer, so the table is queried every time.
+ * 
+ * @author Anton Wolf
+ */
+public final class CalendarCache {
+	/**
+	 * The metadata of all calendars, ordered by display name
+	 */
+	public final static class Calendars {
+		public final int[] ids;
+		public final String[] displayNames;
+		public final int[] colors;
+
+		Calendars(final int size) {
+			ids = new int[size];
+			displayNames = new String[size];
+			colors = new int[size];
+		}
+
+		public int size() {
+			return ids.length;
+		}
+	}
+
+	private final static String TAG = "AgendaWidget";
+	private final static Uri CALENDARS_URI = Uri
+			.parse("content://com.android.calendar/calendars");
+	private final static Calendars EMPTY = new Calendars(0);
+
+	private static Calendars calendars;
+
+	private CalendarCache() {
+	}
+
+	/**
+	 * @return the calendars, queried only if they changed since the last call
+	 */
+	public static synchronized Calendars get(final Context context) {
+		if (calendars == null || !ObserverRegistry.isRegistered()) {
+			calendars = query(context.getContentResolver());
+			Log.d(TAG, "CalendarCache: " + calendars.size() + " calendars");
+		}
+		return calendars;
+	}
+
+	public static synchronized void invalidate() {
+		calendars = null;
+	}
+
+	private static Calendars query(final ContentResolver resolver) {
+		final Cursor cursor = resolver.query(CALENDARS_URI, new String[] {
+				"_id", "displayName", "color" }, null, null,
+				"displayName ASC");
+		if (cursor == null)
+			return EMPTY;
+		try {
+			final Calendars result = new Calendars(cursor.getCount());
+			for (int i = 0; cursor.moveToNext(); i++) {
+				result.ids[i] = cursor.getInt(0);
+				result.displayNames[i] = cursor.getString(1);
+				result.colors[i] = cursor.getInt(2);
+			}
+			return result;
+		} finally {
+			cursor.close();
+		}
+	}
+}
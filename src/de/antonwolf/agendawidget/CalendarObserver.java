@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2011 by Anton Wolf
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.antonwolf.agendawidget;
+
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Observes the calendar provider. The provider notifies its root URI on every
+ * change, whichever table changed, so a single registration on the root sees
+ * everything and there is nothing to filter. The callbacks arrive on a
+ * background thread and are debounced: the listener is called once the
+ * provider has been quiet for a while, but no later than a maximum latency
+ * after the first change. The caches are invalidated immediately on every
+ * change.
+ * 
+ * @author Anton Wolf
+ */
+public final class CalendarObserver extends ContentObserver {
+	public interface Listener {
+		void onCalendarChanged();
+	}
+
+	private final static String TAG = "AgendaWidget";
+	private final static String THREAD_NAME = "CalendarObserverThread";
+	private final static Uri URI = Uri.parse("content://com.android.calendar");
+
+	public final static long DEFAULT_QUIET_PERIOD = 2 * 1000;
+	public final static long DEFAULT_MAX_LATENCY = 10 * 1000;
+
+	private static HandlerThread thread;
+
+	private final Handler handler;
+	private final Listener listener;
+	private final long quietPeriod;
+	private final long maxLatency;
+
+	/**
+	 * Uptime of the first change that was not delivered yet, or 0
+	 */
+	private long firstChange = 0;
+
+	private final Runnable deliver = new Runnable() {
+		@Override
+		public void run() {
+			firstChange = 0;
+			listener.onCalendarChanged();
+		}
+	};
+
+	private final Runnable cancel = new Runnable() {
+		@Override
+		public void run() {
+			handler.removeCallbacks(deliver);
+			firstChange = 0;
+		}
+	};
+
+	public CalendarObserver(final Listener listener) {
+		this(listener, DEFAULT_QUIET_PERIOD, DEFAULT_MAX_LATENCY);
+	}
+
+	/**
+	 * @param quietPeriod
+	 *            The listener is called when there was no change for this
+	 *            many milliseconds...
+	 * @param maxLatency
+	 *            ...but no later than this many milliseconds after the first
+	 *            change
+	 */
+	public CalendarObserver(final Listener listener, final long quietPeriod,
+			final long maxLatency) {
+		this(new Handler(getThread().getLooper()), listener, quietPeriod,
+				maxLatency);
+	}
+
+	private CalendarObserver(final Handler handler, final Listener listener,
+			final long quietPeriod, final long maxLatency) {
+		super(handler);
+		this.handler = handler;
+		this.listener = listener;
+		this.quietPeriod = quietPeriod;
+		this.maxLatency = maxLatency;
+	}
+
+	public void register(final ContentResolver resolver) {
+		resolver.registerContentObserver(URI, true, this);
+	}
+
+	public void unregister(final ContentResolver resolver) {
+		resolver.unregisterContentObserver(this);
+		handler.post(cancel);
+	}
+
+	@Override
+	public void onChange(final boolean selfChange) {
+		Log.d(TAG, "CalendarObserver.onChange()");
+		EventCache.invalidate();
+		BirthdayIndex.invalidate();
+		// on this API level the changed URI is unknown, so a change of an
+		// event drops the calendars as well
+		CalendarCache.invalidate();
+		WidgetInfoCache.invalidateAll();
+
+		final long now = SystemClock.uptimeMillis();
+		if (firstChange == 0)
+			firstChange = now;
+		handler.removeCallbacks(deliver);
+		handler.postAtTime(deliver,
+				Math.min(now + quietPeriod, firstChange + maxLatency));
+	}
+
+	private static synchronized HandlerThread getThread() {
+		if (thread == null) {
+			thread = new HandlerThread(THREAD_NAME,
+					Process.THREAD_PRIORITY_BACKGROUND);
+			thread.start();
+		}
+		return thread;
+	}
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2011 by Anton Wolf
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.antonwolf.agendawidget;
+
+import java.util.Arrays;
+import java.util.TimeZone;
+
+import android.text.format.DateUtils;
+import android.util.Log;
+
+/**
+ * Process wide day boundaries of the current time zone. The UTC offsets of
+ * the time zone are sampled once into a table of their transitions, so
+ * that converting between milliseconds and Julian days is plain arithmetic.
+ * The boundaries are computed once per day; a change of the time zone or
+ * the clock must be reported by {@link #invalidate()}.
+ * 
+ * @author Anton Wolf
+ */
+public final class DayClock {
+	/**
+	 * The boundaries of one day in one time zone
+	 */
+	public final static class Days {
+		public final TimeZone timeZone;
+		/**
+		 * Julian day of today
+		 */
+		public final int today;
+		public final long yesterdayStart;
+		public final long todayStart;
+		public final long tomorrowStart;
+		public final long dayAfterTomorrowStart;
+		/**
+		 * The start of the day after the same weekday next week
+		 */
+		public final long oneWeekFromNow;
+		public final long yearStart;
+		/**
+		 * The start of the next year
+		 */
+		public final long yearEnd;
+
+		private final Offsets offsets;
+
+		private Days(final Offsets offsets, final long now) {
+			this.offsets = offsets;
+			timeZone = offsets.timeZone;
+			today = getJulianDay(now);
+			yesterdayStart = getDayStart(today - 1);
+			todayStart = getDayStart(today);
+			tomorrowStart = getDayStart(today + 1);
+			dayAfterTomorrowStart = getDayStart(today + 2);
+			oneWeekFromNow = getDayStart(today + 8);
+			final int year = getYear(today);
+			yearStart = getDayStart(getNewYear(year));
+			yearEnd = getDayStart(getNewYear(year + 1));
+		}
+
+		/**
+		 * @return the offset from UTC at the time in milliseconds
+		 */
+		public int getOffset(final long millis) {
+			return offsets.get(millis);
+		}
+
+		/**
+		 * @return the Julian day the time falls on
+		 */
+		public int getJulianDay(final long millis) {
+			return floorDiv(millis + offsets.get(millis), DAY_IN_MILLIS)
+					+ EPOCH_JULIAN_DAY;
+		}
+
+		/**
+		 * @return the first millisecond of the Julian day
+		 */
+		public long getDayStart(final int julianDay) {
+			final long local = (julianDay - EPOCH_JULIAN_DAY) * DAY_IN_MILLIS;
+			final long guess = local - offsets.get(local);
+			// a transition may skip or repeat midnight, so try the offsets
+			// before and after it; the day starts with its first instant
+			final long before = local
+					- offsets.get(guess - DAY_IN_MILLIS / 2);
+			if (getJulianDay(before) == julianDay)
+				return before;
+			return local - offsets.get(guess + DAY_IN_MILLIS / 2);
+		}
+
+		private boolean isValid(final TimeZone timeZone, final long now) {
+			return todayStart <= now && now < tomorrowStart
+					&& timeZone.getID().equals(this.timeZone.getID());
+		}
+	}
+
+	/**
+	 * The transitions of the UTC offset of a time zone around a time
+	 */
+	private final static class Offsets {
+		final TimeZone timeZone;
+		final long start;
+		final long end;
+		/**
+		 * offsets[i + 1] is valid from transitions[i] on
+		 */
+		final long[] transitions;
+		final int[] offsets;
+
+		Offsets(final TimeZone timeZone, final long now) {
+			this.timeZone = timeZone;
+			start = now - TABLE_DAYS * DAY_IN_MILLIS;
+
+			final long[] transitions = new long[MAX_TRANSITIONS];
+			final int[] offsets = new int[MAX_TRANSITIONS + 1];
+			int count = 0;
+			int offset = timeZone.getOffset(start);
+			offsets[0] = offset;
+			long time = start + DAY_IN_MILLIS;
+			// assumes there is at most one transition per day
+			for (; time < now + TABLE_DAYS * DAY_IN_MILLIS
+					&& count < MAX_TRANSITIONS; time += DAY_IN_MILLIS) {
+				final int next = timeZone.getOffset(time);
+				if (next == offset)
+					continue;
+				long before = time - DAY_IN_MILLIS;
+				long after = time;
+				while (after - before > 1) {
+					final long middle = (before + after) >>> 1;
+					if (timeZone.getOffset(middle) == offset)
+						before = middle;
+					else
+						after = middle;
+				}
+				transitions[count] = after;
+				offsets[++count] = offset = next;
+			}
+			end = time - DAY_IN_MILLIS;
+			this.transitions = new long[count];
+			System.arraycopy(transitions, 0, this.transitions, 0, count);
+			this.offsets = new int[count + 1];
+			System.arraycopy(offsets, 0, this.offsets, 0, count + 1);
+		}
+
+		int get(final long millis) {
+			if (millis < start || millis >= end)
+				return timeZone.getOffset(millis);
+			final int index = Arrays.binarySearch(transitions, millis);
+			return offsets[index >= 0 ? index + 1 : -index - 1];
+		}
+
+		boolean covers(final TimeZone timeZone, final long now) {
+			return start + COVERED_DAYS * DAY_IN_MILLIS <= now
+					&& now < end - COVERED_DAYS * DAY_IN_MILLIS
+					&& timeZone.getID().equals(this.timeZone.getID());
+		}
+	}
+
+	private final static String TAG = "AgendaWidget";
+	private final static long DAY_IN_MILLIS = DateUtils.DAY_IN_MILLIS;
+	private final static int EPOCH_JULIAN_DAY = 2440588;
+	/**
+	 * Days of 1 January 1970 since 1 March 0
+	 */
+	private final static int EPOCH_MARCH_DAYS = 719468;
+	/**
+	 * The table covers this many days before and after its creation
+	 */
+	private final static int TABLE_DAYS = 800;
+	/**
+	 * Days before and after now that must be covered by the table; more
+	 * than the span of the boundaries, which reach one year
+	 */
+	private final static int COVERED_DAYS = 400;
+	/**
+	 * Zones with more transitions are only covered in part by the table
+	 */
+	private final static int MAX_TRANSITIONS = 16;
+
+	private static Offsets offsets;
+	private static Days days;
+
+	private DayClock() {
+	}
+
+	/**
+	 * @return the boundaries of today, computed only once per day and time
+	 *         zone
+	 */
+	public static Days get() {
+		return get(System.currentTimeMillis());
+	}
+
+	/**
+	 * @return the boundaries of the day the time falls on
+	 */
+	public static synchronized Days get(final long now) {
+		final TimeZone timeZone = TimeZone.getDefault();
+		if (days != null && days.isValid(timeZone, now))
+			return days;
+		if (offsets == null || !offsets.covers(timeZone, now)) {
+			offsets = new Offsets(timeZone, now);
+			Log.d(TAG, "DayClock: " + offsets.transitions.length
+					+ " offset transitions in " + timeZone.getID());
+		}
+		days = new Days(offsets, now);
+		return days;
+	}
+
+	/**
+	 * Drops the boundaries and offsets after the time zone, its rules or the
+	 * clock changed
+	 */
+	public static synchronized void invalidate() {
+		Log.d(TAG, "DayClock: invalidated");
+		offsets = null;
+		days = null;
+	}
+
+	/**
+	 * @return the Gregorian year of the Julian day
+	 */
+	static int getYear(final int julianDay) {
+		final int days = julianDay - EPOCH_JULIAN_DAY + EPOCH_MARCH_DAYS;
+		final int era = (days >= 0 ? days : days - 146096) / 146097;
+		final int dayOfEra = days - era * 146097;
+		final int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524
+				- dayOfEra / 146096) / 365;
+		final int dayOfYear = dayOfEra
+				- (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		// years start in March here
+		final int month = (5 * dayOfYear + 2) / 153;
+		return yearOfEra + era * 400 + (month >= 10 ? 1 : 0);
+	}
+
+	/**
+	 * @return the Julian day of 1 January of the Gregorian year
+	 */
+	static int getNewYear(final int year) {
+		final int march = year - 1;
+		final int era = (march >= 0 ? march : march - 399) / 400;
+		final int yearOfEra = march - era * 400;
+		// 1 January is the 306th day of the year beginning in March
+		final int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra
+				/ 100 + 306;
+		return era * 146097 + dayOfEra - EPOCH_MARCH_DAYS + EPOCH_JULIAN_DAY;
+	}
+
+	private static int floorDiv(final long dividend, final long divisor) {
+		final long quotient = dividend / divisor;
+		return (int) (dividend % divisor < 0 ? quotient - 1 : quotient);
+	}
+}
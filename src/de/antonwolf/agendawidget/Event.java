@@ -23,6 +23,7 @@ package de.antonwolf.agendawidget;
 
 public final class Event {
 	public boolean allDay = false;
+	public int calendarId;
 	public int color;
 	public int endDay;
 	public long endMillis;
@@ -33,8 +34,29 @@ public final class Event {
 	public int startDay;
 	public String title;
 
+	/**
+	 * @return a new event with the same fields
+	 */
+	public Event copy() {
+		final Event copy = new Event();
+		copy.allDay = allDay;
+		copy.calendarId = calendarId;
+		copy.color = color;
+		copy.endDay = endDay;
+		copy.endMillis = endMillis;
+		copy.hasAlarm = hasAlarm;
+		copy.isBirthday = isBirthday;
+		copy.location = location;
+		copy.startDay = startDay;
+		copy.startMillis = startMillis;
+		copy.title = title;
+		return copy;
+	}
+
 	@Override
 	public boolean equals(Object o) {
+		if (o == this)
+			return true;
 		if (!(o instanceof Event))
 			return false;
 
@@ -44,4 +66,12 @@ public final class Event {
 				&& other.startDay == this.startDay
 				&& other.title.equals(this.title);
 	}
+
+	/**
+	 * Consistent with equals(): birthdays are identified by day and title
+	 */
+	@Override
+	public int hashCode() {
+		return 31 * startDay + (title == null ? 0 : title.hashCode());
+	}
 }
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2011 by Anton Wolf
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.antonwolf.agendawidget;
+
+/**
+ * Stores events column by column in primitive arrays, with titles and
+ * locations interned in a string table. Cached snapshots keep their rows
+ * this way instead of as one Event object per row, and rows are decoded
+ * into an Event the caller reuses.
+ * 
+ * @author Anton Wolf
+ */
+final class EventBuffer {
+	private final static int FLAG_ALL_DAY = 1;
+	private final static int FLAG_HAS_ALARM = 2;
+	private final static int FLAG_BIRTHDAY = 4;
+
+	private long[] startMillis;
+	private long[] endMillis;
+	private int[] startDay;
+	private int[] endDay;
+	private int[] calendarId;
+	private int[] color;
+	private int[] flags;
+	/**
+	 * Indices into the string table; -1 for null
+	 */
+	private int[] title;
+	private int[] location;
+	private int size = 0;
+
+	private final StringTable strings = new StringTable();
+
+	EventBuffer(final int capacity) {
+		allocate(Math.max(capacity, 1));
+	}
+
+	int size() {
+		return size;
+	}
+
+	void add(final Event event) {
+		if (size == startMillis.length)
+			allocate(size * 2);
+		startMillis[size] = event.startMillis;
+		endMillis[size] = event.endMillis;
+		startDay[size] = event.startDay;
+		endDay[size] = event.endDay;
+		calendarId[size] = event.calendarId;
+		color[size] = event.color;
+		flags[size] = (event.allDay ? FLAG_ALL_DAY : 0)
+				| (event.hasAlarm ? FLAG_HAS_ALARM : 0)
+				| (event.isBirthday ? FLAG_BIRTHDAY : 0);
+		title[size] = intern(event.title);
+		location[size] = intern(event.location);
+		size++;
+	}
+
+	/**
+	 * Decodes a row without allocating
+	 * 
+	 * @return event, filled with the row
+	 */
+	Event get(final int index, final Event event) {
+		if (index >= size)
+			throw new IndexOutOfBoundsException("Index " + index + ", size "
+					+ size);
+		event.startMillis = startMillis[index];
+		event.endMillis = endMillis[index];
+		event.startDay = startDay[index];
+		event.endDay = endDay[index];
+		event.calendarId = calendarId[index];
+		event.color = color[index];
+		event.allDay = (flags[index] & FLAG_ALL_DAY) != 0;
+		event.hasAlarm = (flags[index] & FLAG_HAS_ALARM) != 0;
+		event.isBirthday = (flags[index] & FLAG_BIRTHDAY) != 0;
+		event.title = title[index] == -1 ? null : strings.get(title[index]);
+		event.location = location[index] == -1 ? null : strings
+				.get(location[index]);
+		return event;
+	}
+
+	/**
+	 * @return the table of titles and locations, so that rows can be decoded
+	 *         into strings that are already interned
+	 */
+	StringTable getStrings() {
+		return strings;
+	}
+
+	private int intern(final String string) {
+		return string == null ? -1 : strings.intern(string);
+	}
+
+	private void allocate(final int capacity) {
+		startMillis = grow(startMillis, capacity);
+		endMillis = grow(endMillis, capacity);
+		startDay = grow(startDay, capacity);
+		endDay = grow(endDay, capacity);
+		calendarId = grow(calendarId, capacity);
+		color = grow(color, capacity);
+		flags = grow(flags, capacity);
+		title = grow(title, capacity);
+		location = grow(location, capacity);
+	}
+
+	private long[] grow(final long[] array, final int capacity) {
+		final long[] result = new long[capacity];
+		if (array != null)
+			System.arraycopy(array, 0, result, 0, size);
+		return result;
+	}
+
+	private int[] grow(final int[] array, final int capacity) {
+		final int[] result = new int[capacity];
+		if (array != null)
+			System.arraycopy(array, 0, result, 0, size);
+		return result;
+	}
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2011 by Anton Wolf
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.antonwolf.agendawidget;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+import android.util.Log;
+
+/**
+ * Process wide cache of the instances read from the calendar provider. It
+ * lets refreshes that are caused by alarms (an event ending, midnight) or
+ * changed settings be served without querying the provider again. Since the
+ * provider cannot tell which rows changed on this API level, every change
+ * notification of the provider drops all snapshots.
+ * 
+ * @author Anton Wolf
+ */
+public final class EventCache {
+	/**
+	 * The instances of some calendars in query order, read from the start of
+	 * a scan up to a position where reading can continue
+	 */
+	final static class Snapshot {
+		final int[] calendarIds;
+		final boolean color;
+		final long start;
+		final int generation;
+		final EventBuffer rows;
+
+		int window;
+		long searched = Long.MIN_VALUE;
+		InstancesPager.Key key;
+		boolean complete = false;
+
+		private Snapshot(final int[] calendarIds, final boolean color,
+				final long start, final int generation, final int window,
+				final int capacity) {
+			this.calendarIds = calendarIds;
+			this.color = color;
+			this.start = start;
+			this.generation = generation;
+			this.window = window;
+			rows = new EventBuffer(capacity);
+		}
+	}
+
+	private final static String TAG = "AgendaWidget";
+	private final static int MAX_SNAPSHOTS = 4;
+	/**
+	 * Snapshots stop growing at this size; rows behind it are always read
+	 * from the provider
+	 */
+	final static int MAX_ROWS = 512;
+
+	/**
+	 * Most recently used first
+	 */
+	private final static List<Snapshot> snapshots = new LinkedList<Snapshot>();
+	private static int generation = 0;
+	private static int hits = 0;
+	private static int misses = 0;
+
+	private EventCache() {
+	}
+
+	/**
+	 * @return a snapshot that contains all rows the planner's query would
+	 *         return from start on; a new, empty one if there is none
+	 */
+	static synchronized Snapshot get(final QueryPlanner planner,
+			final long start, final int window) {
+		final Iterator<Snapshot> iterator = snapshots.iterator();
+		while (iterator.hasNext()) {
+			final Snapshot snapshot = iterator.next();
+			if (snapshot.start > start
+					|| (planner.colColor != -1 && !snapshot.color)
+					|| !containsAll(snapshot.calendarIds, planner.calendarIds))
+				continue;
+			iterator.remove();
+			snapshots.add(0, snapshot);
+			return snapshot;
+		}
+
+		final Snapshot snapshot = new Snapshot(planner.calendarIds,
+				planner.colColor != -1, start, generation, window, 64);
+		put(snapshot);
+		return snapshot;
+	}
+
+	/**
+	 * @return a snapshot of the planner's calendars and color column only,
+	 *         that continues where the given one stopped
+	 */
+	static synchronized Snapshot fork(final Snapshot parent,
+			final QueryPlanner planner) {
+		final Snapshot snapshot = new Snapshot(planner.calendarIds,
+				planner.colColor != -1, parent.start, parent.generation,
+				parent.window, parent.rows.size());
+		final Event event = new Event();
+		for (int i = 0; i < parent.rows.size(); i++)
+			if (planner.matches(parent.rows.get(i, event)))
+				snapshot.rows.add(event);
+		snapshot.searched = parent.searched;
+		snapshot.key = parent.key;
+		snapshot.complete = parent.complete;
+		put(snapshot);
+		return snapshot;
+	}
+
+	static synchronized void remove(final Snapshot snapshot) {
+		snapshots.remove(snapshot);
+	}
+
+	/**
+	 * Drops all snapshots, because the calendar provider changed
+	 */
+	public static synchronized void invalidate() {
+		generation++;
+		snapshots.clear();
+	}
+
+	/**
+	 * @return a number that changes whenever the calendar provider changed
+	 */
+	static synchronized int getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Counts a scan as hit if it did not query the provider at all
+	 */
+	static synchronized void count(final boolean hit) {
+		if (hit)
+			hits++;
+		else
+			misses++;
+		Log.d(TAG, "EventCache: " + hits + " hits, " + misses + " misses");
+	}
+
+	public static synchronized int getHits() {
+		return hits;
+	}
+
+	public static synchronized int getMisses() {
+		return misses;
+	}
+
+	private static void put(final Snapshot snapshot) {
+		if (snapshot.generation != generation)
+			return; // provider changed while the snapshot was built
+		snapshots.add(0, snapshot);
+		while (snapshots.size() > MAX_SNAPSHOTS)
+			snapshots.remove(snapshots.size() - 1);
+	}
+
+	/**
+	 * @return true if the sorted array a contains all elements of the sorted
+	 *         array b
+	 */
+	private static boolean containsAll(final int[] a, final int[] b) {
+		int i = 0;
+		for (final int element : b) {
+			while (i < a.length && a[i] < element)
+				i++;
+			if (i == a.length || a[i] != element)
+				return false;
+		}
+		return true;
+	}
+}
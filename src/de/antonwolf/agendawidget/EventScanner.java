@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2011 by Anton Wolf
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.antonwolf.agendawidget;
+
+import java.util.Arrays;
+
+import de.antonwolf.agendawidget.EventCache.Snapshot;
+
+import android.content.ContentResolver;
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+import android.net.Uri;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+/**
+ * Returns the instances a query planner asks for, in query order. Rows are
+ * served from the {@link EventCache} first; the provider is only queried
+ * for rows behind the cached snapshot, and those are added to it.
+ * 
+ * @author Anton Wolf
+ */
+final class EventScanner {
+	private final static String TAG = "AgendaWidget";
+	final static String CURSOR_FORMAT = "content://com.android.calendar/instances/when/%1$s/%2$s";
+	private final static long SEARCH_DURATION = 2 * DateUtils.YEAR_IN_MILLIS;
+	/**
+	 * The query windows that are tried one after another until the widget is
+	 * full. Each window continues where the previous one stopped, so the
+	 * provider only has to expand recurring events as far as needed.
+	 */
+	final static long[] SEARCH_WINDOWS = new long[] {
+			2 * DateUtils.DAY_IN_MILLIS, DateUtils.WEEK_IN_MILLIS,
+			5 * DateUtils.WEEK_IN_MILLIS, 26 * DateUtils.WEEK_IN_MILLIS,
+			SEARCH_DURATION };
+	/**
+	 * The characters \s stands for in regular expressions
+	 */
+	private final static String WHITESPACE = " \t\n\u000B\f\r";
+
+	private final ContentResolver resolver;
+	private final QueryPlanner planner;
+	private final int firstWindow;
+	/**
+	 * Every row is decoded into this event
+	 */
+	private final Event event = new Event();
+	private final CharArrayBuffer titleBuffer = new CharArrayBuffer(64);
+	private final CharArrayBuffer locationBuffer = new CharArrayBuffer(64);
+	/**
+	 * Interns the text of rows that are not recorded in the snapshot
+	 */
+	private StringTable strings;
+
+	private Snapshot snapshot;
+	private int served = 0;
+	private boolean recording = true;
+	private boolean queried = false;
+
+	private int window;
+	private long searched;
+	private InstancesPager.Key key;
+	private boolean complete;
+	private InstancesPager pager;
+
+	/**
+	 * @param start
+	 *            Only events ending after this time are returned
+	 * @param firstWindow
+	 *            The index of the first query window in SEARCH_WINDOWS
+	 */
+	EventScanner(final ContentResolver resolver, final QueryPlanner planner,
+			final long start, final int firstWindow) {
+		this.resolver = resolver;
+		this.planner = planner;
+		this.firstWindow = firstWindow;
+
+		snapshot = EventCache.get(planner, start, firstWindow);
+		window = snapshot.window;
+		searched = snapshot.searched;
+		key = snapshot.key;
+		complete = snapshot.complete;
+	}
+
+	/**
+	 * @return the index of the query window the scan has reached
+	 */
+	int getWindow() {
+		return window;
+	}
+
+	/**
+	 * @return true if there are no further events, false if next() stopped
+	 *         at the end of a window
+	 */
+	boolean isComplete() {
+		return complete;
+	}
+
+	/**
+	 * @param widen
+	 *            False to stop at the end of the current query window
+	 *            instead of querying the next, wider one
+	 * @return the next event, or null if there are no further events or the
+	 *         window ended. The event is reused by the next call, so it has
+	 *         to be copied to be kept.
+	 */
+	Event next(final boolean widen) {
+		while (served < snapshot.rows.size())
+			if (planner.matches(snapshot.rows.get(served++, event)))
+				return event;
+		if (complete)
+			return null;
+
+		if (!queried) {
+			queried = true;
+			// rows of this planner would be recorded without color
+			if (!Arrays.equals(snapshot.calendarIds, planner.calendarIds)
+					|| (snapshot.color && planner.colColor == -1)) {
+				snapshot = EventCache.fork(snapshot, planner);
+				served = snapshot.rows.size();
+			}
+			window = Math.max(window, firstWindow);
+		}
+
+		while (true) {
+			if (pager == null)
+				pager = new InstancesPager(resolver, getWindowUri(), planner,
+						searched, key);
+
+			Cursor cursor = pager.nextInPage();
+			if (cursor == null) {
+				// between two pages the snapshot can be continued later
+				key = pager.getKey();
+				save();
+				recording &= snapshot.rows.size() < EventCache.MAX_ROWS;
+				cursor = pager.next();
+			}
+			if (cursor != null)
+				return record(cursor);
+
+			// window finished
+			if (!widen && window < SEARCH_WINDOWS.length - 1)
+				return null;
+			pager = null;
+			key = null;
+			if (window == SEARCH_WINDOWS.length - 1)
+				complete = true;
+			else {
+				searched = snapshot.start + SEARCH_WINDOWS[window];
+				window++;
+			}
+			save();
+			if (complete)
+				return null;
+		}
+	}
+
+	void close() {
+		if (pager != null) {
+			try {
+				// finish the page, so the snapshot ends where it can be
+				// continued
+				if (recording) {
+					Cursor cursor;
+					while ((cursor = pager.nextInPage()) != null)
+						record(cursor);
+					key = pager.getKey();
+					save();
+				}
+			} catch (RuntimeException e) {
+				Log.d(TAG, "Dropping incomplete snapshot", e);
+				EventCache.remove(snapshot);
+			} finally {
+				pager.close();
+				pager = null;
+			}
+		}
+		EventCache.count(!queried);
+	}
+
+	private Uri getWindowUri() {
+		return Uri.parse(String.format(CURSOR_FORMAT,
+				Math.max(snapshot.start, searched), snapshot.start
+						+ SEARCH_WINDOWS[window]));
+	}
+
+	private void save() {
+		if (!recording)
+			return;
+		snapshot.window = window;
+		snapshot.searched = searched;
+		snapshot.key = key;
+		snapshot.complete = complete;
+	}
+
+	private Event record(final Cursor cursor) {
+		readEvent(cursor);
+		if (recording) {
+			snapshot.rows.add(event);
+			served++;
+		}
+		return event;
+	}
+
+	private void readEvent(final Cursor cursor) {
+		event.allDay = 1 == cursor.getInt(planner.colAllDay);
+		event.isBirthday = false;
+
+		event.calendarId = cursor.getInt(planner.colCalendar);
+		event.startDay = cursor.getInt(planner.colStartDay);
+		event.startMillis = cursor.getLong(planner.colStartMillis);
+		event.endDay = cursor.getInt(planner.colEndDay);
+		event.endMillis = cursor.getLong(planner.colEndMillis);
+
+		// text is copied into the buffers and only becomes a new String if
+		// it was not seen before; a null title becomes ""
+		final StringTable table = getStrings();
+		cursor.copyStringToBuffer(planner.colTitle, titleBuffer);
+		event.title = table.get(table.intern(titleBuffer.data,
+				titleBuffer.sizeCopied));
+
+		cursor.copyStringToBuffer(planner.colLocation, locationBuffer);
+		event.location = isBlank(locationBuffer) ? null : table.get(table
+				.intern(locationBuffer.data, locationBuffer.sizeCopied));
+
+		event.color = planner.colColor == -1 ? 0 : cursor
+				.getInt(planner.colColor);
+		event.hasAlarm = cursor.getInt(planner.colHasAlarm) == 1;
+	}
+
+	private StringTable getStrings() {
+		if (recording)
+			return snapshot.rows.getStrings();
+		if (strings == null)
+			strings = new StringTable();
+		return strings;
+	}
+
+	private static boolean isBlank(final CharArrayBuffer buffer) {
+		for (int i = 0; i < buffer.sizeCopied; i++)
+			if (WHITESPACE.indexOf(buffer.data[i]) == -1)
+				return false;
+		return true;
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2011 by Anton Wolf
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.antonwolf.agendawidget;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+/**
+ * Keeps the last frame drawn for widgets in bitmap mode, so that a changed
+ * agenda is drawn into the bitmap of its previous frame. Unchanged agendas
+ * never get here, since their update is skipped. Both the number and the
+ * size of the frames are bounded.
+ * 
+ * @author Anton Wolf
+ */
+final class FrameCache {
+	private final static class Frame {
+		final int widgetId;
+		final Bitmap bitmap;
+
+		Frame(final int widgetId, final Bitmap bitmap) {
+			this.widgetId = widgetId;
+			this.bitmap = bitmap;
+		}
+	}
+
+	private final static String TAG = "AgendaWidget";
+	private final static int MAX_FRAMES = 4;
+	/**
+	 * Larger frames are drawn at a lower resolution and scaled up by the
+	 * ImageView, which also keeps them well below the binder limit
+	 */
+	private final static int MAX_FRAME_BYTES = 384 * 1024;
+	private final static int BYTES_PER_PIXEL = 4;
+
+	/**
+	 * Most recently used first
+	 */
+	private final static List<Frame> frames = new LinkedList<Frame>();
+
+	private FrameCache() {
+	}
+
+	/**
+	 * @param width
+	 *            The size of the agenda in pixels
+	 * @return a bitmap showing the agenda of the style
+	 */
+	static synchronized Bitmap draw(final int widgetId, final Style style,
+			final int width, final int height) {
+		final float scale = (float) Math.min(1, Math.sqrt((double) MAX_FRAME_BYTES
+				/ (BYTES_PER_PIXEL * width * height)));
+		final int frameWidth = Math.max(1, (int) (width * scale));
+		final int frameHeight = Math.max(1, (int) (height * scale));
+
+		Frame frame = remove(widgetId);
+		if (frame != null && frame.bitmap.getWidth() == frameWidth
+				&& frame.bitmap.getHeight() == frameHeight)
+			frame.bitmap.eraseColor(0);
+		else {
+			if (frame != null)
+				frame.bitmap.recycle();
+			frame = new Frame(widgetId, Bitmap.createBitmap(frameWidth,
+					frameHeight, Bitmap.Config.ARGB_8888));
+		}
+
+		style.draw(frame.bitmap, scale);
+		frames.add(0, frame);
+		while (frames.size() > MAX_FRAMES)
+			frames.remove(frames.size() - 1).bitmap.recycle();
+		Log.d(TAG, "Drew frame of widget " + widgetId + " at " + frameWidth
+				+ "x" + frameHeight);
+		return frame.bitmap;
+	}
+
+	/**
+	 * Frees the frame of a deleted widget
+	 */
+	static synchronized void delete(final int widgetId) {
+		final Frame frame = remove(widgetId);
+		if (frame != null)
+			frame.bitmap.recycle();
+	}
+
+	private static Frame remove(final int widgetId) {
+		final Iterator<Frame> iterator = frames.iterator();
+		while (iterator.hasNext()) {
+			final Frame frame = iterator.next();
+			if (frame.widgetId == widgetId) {
+				iterator.remove();
+				return frame;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2011 by Anton Wolf
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.antonwolf.agendawidget;
+
+import java.util.Locale;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.net.Uri;
+
+/**
+ * Reads the instances of one query window in small pages. Each page
+ * continues after the (begin, end, title, _id) key of the last row of the
+ * previous page, so the caller can stop as soon as the widget is full
+ * without the provider ever filling a large CursorWindow.
+ *
+ * @author Anton Wolf
+ */
+final class InstancesPager {
+	/**
+	 * The position of a row in the sort order of the instances query
+	 */
+	final static class Key {
+		final long begin;
+		final long end;
+		final String title;
+		final long id;
+
+		Key(final long begin, final long end, final String title,
+				final long id) {
+			this.begin = begin;
+			this.end = end;
+			this.title = title;
+			this.id = id;
+		}
+	}
+
+	private final static int PAGE_SIZE = 16;
+	/**
+	 * _id only breaks ties, so that rows with equal keys are not skipped.
+	 * The calendar provider appends the sort order to its SQL, which is the
+	 * only way to pass a LIMIT on this API level.
+	 */
+	private final static String PAGE_SORT = "begin ASC, end DESC, title ASC, _id ASC LIMIT "
+			+ PAGE_SIZE;
+	/**
+	 * The query joins Instances with Events (and Calendars), which all have
+	 * an _id column, so the WHERE clause has to qualify it. The values are
+	 * written into the selection, see QueryPlanner.
+	 */
+	private final static String AFTER_KEY = " AND (begin > %1$d OR (begin = %1$d AND (end < %2$d OR (end = %2$d AND (title > %3$s OR (title = %3$s AND Instances._id > %4$d))))))";
+	private final static String AFTER_KEY_NULL_TITLE = " AND (begin > %1$d OR (begin = %1$d AND (end < %2$d OR (end = %2$d AND (title IS NOT NULL OR Instances._id > %3$d)))))";
+
+	private final ContentResolver resolver;
+	private final Uri uri;
+	private final QueryPlanner planner;
+	private final String selection;
+
+	private Cursor cursor;
+	private boolean lastPage = false;
+	private Key key;
+
+	/**
+	 * @param searched
+	 *            Events beginning up to this time have already been read
+	 *            from a previous query window
+	 * @param key
+	 *            Only rows after this key are read; or null
+	 */
+	InstancesPager(final ContentResolver resolver, final Uri uri,
+			final QueryPlanner planner, final long searched, final Key key) {
+		this.resolver = resolver;
+		this.uri = uri;
+		this.planner = planner;
+		this.key = key;
+		selection = planner.getSelection(searched);
+	}
+
+	/**
+	 * @return the cursor positioned at the next row, or null if there are no
+	 *         further rows
+	 */
+	Cursor next() {
+		final Cursor row = nextInPage();
+		if (row != null || lastPage)
+			return row;
+
+		cursor = queryPage();
+		lastPage = cursor == null || cursor.getCount() < PAGE_SIZE;
+		return nextInPage();
+	}
+
+	/**
+	 * @return the cursor positioned at the next row of the current page, or
+	 *         null if the page is finished
+	 */
+	Cursor nextInPage() {
+		if (cursor == null)
+			return null;
+		if (cursor.moveToNext())
+			return cursor;
+		if (cursor.moveToLast())
+			key = new Key(cursor.getLong(planner.colStartMillis),
+					cursor.getLong(planner.colEndMillis),
+					cursor.getString(planner.colTitle),
+					cursor.getLong(planner.colId));
+		close();
+		return null;
+	}
+
+	/**
+	 * @return the key of the last row of the last finished page, or null
+	 */
+	Key getKey() {
+		return key;
+	}
+
+	void close() {
+		if (cursor != null)
+			cursor.close();
+		cursor = null;
+	}
+
+	private Cursor queryPage() {
+		if (key == null)
+			return resolver.query(uri, planner.projection, selection, null,
+					PAGE_SORT);
+
+		final String afterKey;
+		if (key.title == null)
+			afterKey = String.format(Locale.US, AFTER_KEY_NULL_TITLE,
+					key.begin, key.end, key.id);
+		else
+			afterKey = String.format(Locale.US, AFTER_KEY, key.begin, key.end,
+					DatabaseUtils.sqlEscapeString(key.title), key.id);
+		return resolver.query(uri, planner.projection, selection + afterKey,
+				null, PAGE_SORT);
+	}
+}
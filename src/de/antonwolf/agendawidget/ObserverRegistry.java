@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2011 by Anton Wolf
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.antonwolf.agendawidget;
+
+import android.appwidget.AppWidgetManager;
+import android.appwidget.AppWidgetProviderInfo;
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+import android.util.SparseBooleanArray;
+
+/**
+ * Owns the single calendar observer of the process. AppWidgetProviders are
+ * created anew for every broadcast, so they cannot hold the observer
+ * themselves. The observer is registered while at least one widget of any
+ * size is alive, and a calendar change refreshes all of them at once.
+ * 
+ * @author Anton Wolf
+ */
+public final class ObserverRegistry {
+	private final static String TAG = "AgendaWidget";
+
+	private final static SparseBooleanArray widgetIds = new SparseBooleanArray();
+	private static CalendarObserver observer;
+	private static Context context;
+	private static int registrations = 0;
+	/**
+	 * True if the live widgets of all sizes have been added
+	 */
+	private static boolean seeded = false;
+
+	private ObserverRegistry() {
+	}
+
+	/**
+	 * Adds the live widgets of all sizes once per process. A process that
+	 * was started by the alarm or update of one widget does not learn about
+	 * the others otherwise, so they would miss calendar changes.
+	 */
+	public static void addAllWidgets(final Context context) {
+		synchronized (ObserverRegistry.class) {
+			if (seeded)
+				return;
+			seeded = true;
+		}
+		final AppWidgetManager manager = AppWidgetManager.getInstance(context);
+		final String packageName = context.getPackageName();
+		for (final AppWidgetProviderInfo info : manager.getInstalledProviders())
+			if (packageName.equals(info.provider.getPackageName()))
+				addWidgets(context, manager.getAppWidgetIds(info.provider));
+	}
+
+	/**
+	 * Registers the observer if these are the first live widgets
+	 */
+	public static synchronized void addWidgets(final Context context,
+			final int[] ids) {
+		for (final int id : ids)
+			widgetIds.put(id, true);
+		if (observer != null || widgetIds.size() == 0)
+			return;
+
+		ObserverRegistry.context = context.getApplicationContext();
+		observer = new CalendarObserver(new CalendarObserver.Listener() {
+			@Override
+			public void onCalendarChanged() {
+				refreshAll();
+			}
+		});
+		observer.register(ObserverRegistry.context.getContentResolver());
+		registrations++;
+		Log.d(TAG, "ObserverRegistry: registered for " + widgetIds.size()
+				+ " widgets");
+	}
+
+	/**
+	 * Unregisters the observer if no live widgets are left
+	 */
+	public static synchronized void removeWidgets(final int[] ids) {
+		for (final int id : ids)
+			widgetIds.delete(id);
+		if (observer == null || widgetIds.size() > 0)
+			return;
+
+		observer.unregister(context.getContentResolver());
+		observer = null;
+		registrations--;
+		Log.d(TAG, "ObserverRegistry: unregistered");
+	}
+
+	/**
+	 * @return true if the observer is registered, so the calendar caches are
+	 *         invalidated on changes
+	 */
+	public static synchronized boolean isRegistered() {
+		return observer != null;
+	}
+
+	/**
+	 * @return the number of registered calendar observers; never more than 1
+	 */
+	public static synchronized int getRegistrationCount() {
+		return registrations;
+	}
+
+	public static synchronized int getWidgetCount() {
+		return widgetIds.size();
+	}
+
+	private static void refreshAll() {
+		final int[] ids;
+		final Context context;
+		synchronized (ObserverRegistry.class) {
+			if (observer == null)
+				return;
+			context = ObserverRegistry.context;
+			ids = new int[widgetIds.size()];
+			for (int i = 0; i < ids.length; i++)
+				ids[i] = widgetIds.keyAt(i);
+		}
+		final Intent intent = WidgetService.getBatchIntent(context, ids,
+				WidgetService.REASON_OBSERVER);
+		Log.d(TAG, "Sending " + intent);
+		context.startService(intent);
+	}
+}
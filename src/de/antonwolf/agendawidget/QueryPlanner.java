@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2011 by Anton Wolf
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.antonwolf.agendawidget;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import android.util.SparseBooleanArray;
+
+/**
+ * Turns the settings of one or more widgets into the projection and
+ * selection of the instances query, so the calendar provider only returns
+ * rows that are actually displayed. The calendar provider before Android 4.0
+ * drops the selection arguments of instance queries, so all values are
+ * written into the selection itself.
+ *
+ * @author Anton Wolf
+ */
+public final class QueryPlanner {
+	public final String[] projection;
+
+	/**
+	 * True if no calendar is enabled, so there is nothing to query
+	 */
+	public final boolean isEmpty;
+
+	public final int colTitle;
+	public final int colColor;
+	public final int colLocation;
+	public final int colAllDay;
+	public final int colStartDay;
+	public final int colEndDay;
+	public final int colEndMillis;
+	public final int colHasAlarm;
+	public final int colStartMillis;
+	public final int colId;
+	public final int colCalendar;
+
+	/**
+	 * The enabled calendars, sorted ascending
+	 */
+	final int[] calendarIds;
+	private final int today;
+	private final long now;
+	/**
+	 * The selection up to the begin of the search, see getSelection()
+	 */
+	private final String selection;
+	private final List<String> columns = new ArrayList<String>(9);
+
+	/**
+	 * @param today
+	 *            Julian day of today; all-day events ending before it are
+	 *            skipped
+	 * @param now
+	 *            Events ending before this time are skipped
+	 */
+	public QueryPlanner(final WidgetInfo[] infos, final int today,
+			final long now) {
+		this(getCalendarIds(infos), hasCalendarColor(infos), today, now);
+	}
+
+	/**
+	 * @param calendarIds
+	 *            The enabled calendars, sorted ascending
+	 * @param calendarColor
+	 *            True if the color column is needed
+	 */
+	QueryPlanner(final int[] calendarIds, final boolean calendarColor,
+			final int today, final long now) {
+		this.calendarIds = calendarIds;
+		this.today = today;
+		this.now = now;
+
+		colTitle = addColumn("title");
+		colAllDay = addColumn("allDay");
+		colStartDay = addColumn("startDay");
+		colEndDay = addColumn("endDay");
+		colEndMillis = addColumn("end");
+		colStartMillis = addColumn("begin");
+		colId = addColumn("_id");
+		colCalendar = addColumn("calendar_id");
+		colLocation = addColumn("eventLocation");
+		colHasAlarm = addColumn("hasAlarm");
+		colColor = calendarColor ? addColumn("color") : -1;
+		projection = columns.toArray(new String[columns.size()]);
+
+		final StringBuilder builder = new StringBuilder("calendar_id IN (");
+		for (int i = 0; i < calendarIds.length; i++) {
+			if (i > 0)
+				builder.append(',');
+			builder.append(calendarIds[i]);
+		}
+		isEmpty = calendarIds.length == 0;
+		builder.append(") AND ((allDay = 1 AND endDay >= ").append(today);
+		builder.append(") OR (allDay = 0 AND end > ").append(now);
+		// the range of a query window includes both its ends, so an event
+		// beginning right at the end of a window was returned by it already
+		builder.append(")) AND begin > ");
+		selection = builder.toString();
+	}
+
+	/**
+	 * @param searched
+	 *            Events beginning up to this time have already been read
+	 *            from a previous query window
+	 */
+	public String getSelection(final long searched) {
+		return selection + searched;
+	}
+
+	/**
+	 * @return true if the event would be returned by the query, i.e. it
+	 *         belongs to an enabled calendar and did not end yet
+	 */
+	public boolean matches(final Event event) {
+		if (Arrays.binarySearch(calendarIds, event.calendarId) < 0)
+			return false;
+		return event.allDay ? event.endDay >= today : event.endMillis > now;
+	}
+
+	private int addColumn(final String column) {
+		columns.add(column);
+		return columns.size() - 1;
+	}
+
+	/**
+	 * @return the calendars enabled in any of the widgets, sorted ascending
+	 */
+	private static int[] getCalendarIds(final WidgetInfo[] infos) {
+		final SparseBooleanArray calendarIds = new SparseBooleanArray();
+		for (final WidgetInfo info : infos)
+			for (final int calendarId : info.enabledCalendars)
+				calendarIds.put(calendarId, true);
+		final int[] result = new int[calendarIds.size()];
+		for (int i = 0; i < result.length; i++)
+			result[i] = calendarIds.keyAt(i);
+		return result;
+	}
+
+	private static boolean hasCalendarColor(final WidgetInfo[] infos) {
+		for (final WidgetInfo info : infos)
+			if (info.calendarColor)
+				return true;
+		return false;
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2011 by Anton Wolf
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.antonwolf.agendawidget;
+
+import android.util.Log;
+import android.util.SparseIntArray;
+
+/**
+ * Collects refresh requests per widget while a refresh is running, so that
+ * a burst of requests for the same widget results in a single refresh. Of
+ * several requests for a widget, the strongest reason is kept.
+ * 
+ * @author Anton Wolf
+ */
+final class RefreshScheduler {
+	private final static String TAG = "AgendaWidget";
+
+	/**
+	 * widget ID -> strongest pending reason
+	 */
+	private SparseIntArray pending = new SparseIntArray();
+	private boolean running = false;
+	private int lastStartId;
+	private int finishedStartId;
+
+	private int requests = 0;
+	private int duplicates = 0;
+	private int maxDepth = 0;
+
+	/**
+	 * @param startId
+	 *            The start ID of the service command that requested it
+	 * @return true if no refresh is running, so the caller has to start one
+	 */
+	synchronized boolean request(final int[] widgetIds, final int reason,
+			final int startId) {
+		lastStartId = startId;
+		for (final int widgetId : widgetIds) {
+			requests++;
+			final int index = pending.indexOfKey(widgetId);
+			if (index < 0)
+				pending.put(widgetId, reason);
+			else {
+				duplicates++;
+				if (pending.valueAt(index) < reason)
+					pending.put(widgetId, reason);
+			}
+		}
+		maxDepth = Math.max(maxDepth, pending.size());
+
+		if (running)
+			return false;
+		running = true;
+		return true;
+	}
+
+	/**
+	 * @return the pending widget IDs and their reasons, or null if there are
+	 *         none; in that case the running refresh has to finish and stop
+	 *         the service with {@link #getFinishedStartId()}
+	 */
+	synchronized SparseIntArray take() {
+		if (pending.size() == 0) {
+			running = false;
+			// a later request starts a new refresh, which stops the
+			// service with its own start ID
+			finishedStartId = lastStartId;
+			return null;
+		}
+		final SparseIntArray result = pending;
+		pending = new SparseIntArray();
+		Log.d(TAG, "RefreshScheduler: " + result.size() + " pending, "
+				+ duplicates + " of " + requests
+				+ " requests dropped, max depth " + maxDepth);
+		return result;
+	}
+
+	/**
+	 * @return the start ID of the last request that was handled when take()
+	 *         returned null
+	 */
+	synchronized int getFinishedStartId() {
+		return finishedStartId;
+	}
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2011 by Anton Wolf
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.antonwolf.agendawidget;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import android.util.Log;
+import android.widget.RemoteViews;
+
+/**
+ * Keeps the row views of the last render of one widget, keyed by a hash over
+ * everything the row displays, so rows that did not change are not
+ * formatted and built again.
+ *
+ * @author Anton Wolf
+ */
+final class RowCache {
+	private final static String TAG = "AgendaWidget";
+
+	private Map<Long, RemoteViews> rows = new HashMap<Long, RemoteViews>();
+	private Map<Long, RemoteViews> used = new HashMap<Long, RemoteViews>();
+	private int hits = 0;
+	private int misses = 0;
+
+	/**
+	 * @return the row built for this key by the previous render, or null
+	 */
+	RemoteViews get(final long key) {
+		final RemoteViews row = rows.get(key);
+		if (row == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		used.put(key, row);
+		return row;
+	}
+
+	void put(final long key, final RemoteViews row) {
+		used.put(key, row);
+	}
+
+	/**
+	 * Drops all rows that were not used since the last call, so that the
+	 * cache never holds more than one render.
+	 */
+	void finish() {
+		Log.d(TAG, "Row cache: " + hits + " rows reused, " + misses
+				+ " rows built");
+		final Map<Long, RemoteViews> unused = rows;
+		rows = used;
+		used = unused;
+		used.clear();
+		hits = 0;
+		misses = 0;
+	}
+}
@@ -21,12 +21,10 @@
  */
 package de.antonwolf.agendawidget;
 
-import java.util.Map.Entry;
 import de.antonwolf.agendawidget.WidgetInfo.CalendarPreferences;
 import de.antonwolf.agendawidget.prefences.FontSizePreference;
 import de.antonwolf.agendawidget.prefences.OpacityPreference;
 import android.content.Intent;
-import android.net.Uri;
 import android.os.Bundle;
 import android.preference.CheckBoxPreference;
 import android.preference.ListPreference;
@@ -61,7 +59,9 @@ public final class SettingsActivity extends PreferenceActivity {
 		Log.d(TAG, "SettingsActivity.onCreate(" + widgetId + ")");
 		if (-1 == widgetId)
 			return;
-		final WidgetInfo info = new WidgetInfo(widgetId, this);
+		final WidgetInfo info = WidgetInfoCache.get(this, widgetId);
+		if (null == info)
+			return;
 		final PreferenceManager prefman = getPreferenceManager();
 		prefman.setSharedPreferencesName(WidgetInfo
 				.getSharedPreferencesName(widgetId));
@@ -205,25 +205,24 @@ public final class SettingsActivity extends PreferenceActivity {
 		calendars.setTitle(R.string.settings_calendars);
 		screen.addPreference(calendars);
 
-		for (final Entry<Integer, CalendarPreferences> cinfo : info.calendars
-				.entrySet()) {
+		for (final CalendarPreferences cinfo : info.calendars) {
 			final CheckBoxPreference calendar = new CheckBoxPreference(this);
-			calendar.setDefaultValue(cinfo.getValue().enabledDefault);
-			calendar.setKey(cinfo.getValue().key);
+			calendar.setDefaultValue(cinfo.enabledDefault);
+			calendar.setKey(cinfo.key);
 
 			final SpannableStringBuilder title = new SpannableStringBuilder(
 					"■ ");
-			title.setSpan(new ForegroundColorSpan(cinfo.getValue().color), 0,
+			title.setSpan(new ForegroundColorSpan(cinfo.color), 0,
 					1, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-			title.append(cinfo.getValue().displayName);
+			title.append(cinfo.displayName);
 			calendar.setTitle(title);
 
 			calendar.setSummaryOn(getResources().getString(
 					R.string.settings_calendars_show,
-					cinfo.getValue().displayName));
+					cinfo.displayName));
 			calendar.setSummaryOff(getResources().getString(
 					R.string.settings_calendars_hide,
-					cinfo.getValue().displayName));
+					cinfo.displayName));
 			calendars.addPreference(calendar);
 		}
 	}
@@ -245,8 +244,8 @@ public final class SettingsActivity extends PreferenceActivity {
 		if (-1 == widgetId)
 			return;
 
-		Intent intent = new Intent("update", Uri.parse("widget://" + widgetId),
-				this, WidgetService.class);
+		Intent intent = WidgetService.getBatchIntent(this,
+				new int[] { widgetId }, WidgetService.REASON_USER);
 		Log.d(TAG, "Sending " + intent);
 		startService(intent);
 	}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2011 by Anton Wolf
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.antonwolf.agendawidget;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import android.content.Context;
+import android.util.Log;
+
+/**
+ * Stores the events a widget displayed on its last refresh, so that a
+ * correct agenda can be rendered right after the process was started,
+ * before the calendar provider has been queried.
+ * 
+ * The file consists of a header (magic, version, CRC32 of the rest), the
+ * event count, one fixed width record per event and a table of the titles
+ * and locations the records refer to.
+ * 
+ * @author Anton Wolf
+ */
+final class SnapshotFile {
+	private final static String TAG = "AgendaWidget";
+	private final static String FILE_FORMAT = "agenda_%d.bin";
+
+	private final static int MAGIC = 0x41474e44; // "AGND"
+	private final static int VERSION = 2;
+	private final static int HEADER_SIZE = 12;
+	/**
+	 * start, end, start day, end day, calendar, color, flags, title, location
+	 */
+	private final static int RECORD_SIZE = 8 + 8 + 4 * 7;
+	private final static int MAX_SIZE = 32 * 1024;
+
+	private final static int FLAG_ALL_DAY = 1;
+	private final static int FLAG_HAS_ALARM = 2;
+	private final static int FLAG_BIRTHDAY = 4;
+
+	private SnapshotFile() {
+	}
+
+	static void write(final Context context, final int widgetId,
+			final List<Event> events) {
+		write(context, String.format(FILE_FORMAT, widgetId), events, MAX_SIZE);
+	}
+
+	/**
+	 * Writes the events to a file of the given name, or deletes it if it
+	 * would be larger than maxSize
+	 */
+	static void write(final Context context, final String name,
+			final List<Event> events, final int maxSize) {
+		try {
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+					events.size() * RECORD_SIZE * 2);
+			final DataOutputStream body = new DataOutputStream(bytes);
+			final List<String> strings = new ArrayList<String>();
+			final Map<String, Integer> indices = new HashMap<String, Integer>();
+
+			body.writeInt(events.size());
+			for (final Event event : events) {
+				body.writeLong(event.startMillis);
+				body.writeLong(event.endMillis);
+				body.writeInt(event.startDay);
+				body.writeInt(event.endDay);
+				body.writeInt(event.calendarId);
+				body.writeInt(event.color);
+				body.writeInt((event.allDay ? FLAG_ALL_DAY : 0)
+						| (event.hasAlarm ? FLAG_HAS_ALARM : 0)
+						| (event.isBirthday ? FLAG_BIRTHDAY : 0));
+				body.writeInt(getIndex(event.title, strings, indices));
+				body.writeInt(getIndex(event.location, strings, indices));
+			}
+			body.writeInt(strings.size());
+			for (final String string : strings) {
+				final byte[] utf8 = string.getBytes("UTF-8");
+				body.writeInt(utf8.length);
+				body.write(utf8);
+			}
+			body.flush();
+
+			if (HEADER_SIZE + bytes.size() > maxSize) {
+				Log.d(TAG, "Snapshot " + name + " is too large");
+				context.deleteFile(name);
+				return;
+			}
+
+			final byte[] data = bytes.toByteArray();
+			final CRC32 crc = new CRC32();
+			crc.update(data);
+
+			// write to a temporary file first, so a crash never leaves a
+			// half written snapshot behind
+			final File file = context.getFileStreamPath(name);
+			final File temp = context.getFileStreamPath(name + ".tmp");
+			final DataOutputStream out = new DataOutputStream(
+					new FileOutputStream(temp));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt((int) crc.getValue());
+				out.write(data);
+			} finally {
+				out.close();
+			}
+			if (!temp.renameTo(file))
+				throw new IOException("Cannot rename " + temp);
+		} catch (IOException e) {
+			Log.d(TAG, "Cannot write snapshot " + name, e);
+		}
+	}
+
+	/**
+	 * @return the events the widget displayed on its last refresh, or null if
+	 *         there is no valid snapshot
+	 */
+	static List<Event> read(final Context context, final int widgetId) {
+		return read(context, String.format(FILE_FORMAT, widgetId), MAX_SIZE);
+	}
+
+	/**
+	 * @return the events of the file, or null if it is missing or invalid
+	 */
+	static List<Event> read(final Context context, final String name,
+			final int maxSize) {
+		final File file = context.getFileStreamPath(name);
+		final long length = file.length();
+		if (length < HEADER_SIZE || length > maxSize)
+			return null;
+
+		FileInputStream in = null;
+		try {
+			in = new FileInputStream(file);
+			final FileChannel channel = in.getChannel();
+			final ByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0,
+					channel.size());
+
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+				return null;
+			final int checksum = buffer.getInt();
+			final byte[] data = new byte[buffer.remaining()];
+			buffer.get(data);
+			final CRC32 crc = new CRC32();
+			crc.update(data);
+			if ((int) crc.getValue() != checksum)
+				throw new IOException("Checksum mismatch");
+
+			buffer.position(HEADER_SIZE);
+			final int count = buffer.getInt();
+			if (count < 0 || count * RECORD_SIZE > buffer.remaining())
+				throw new IOException("Invalid event count " + count);
+
+			final List<Event> events = new ArrayList<Event>(count);
+			final int[] titles = new int[count];
+			final int[] locations = new int[count];
+			for (int i = 0; i < count; i++) {
+				final Event event = new Event();
+				event.startMillis = buffer.getLong();
+				event.endMillis = buffer.getLong();
+				event.startDay = buffer.getInt();
+				event.endDay = buffer.getInt();
+				event.calendarId = buffer.getInt();
+				event.color = buffer.getInt();
+				final int flags = buffer.getInt();
+				event.allDay = (flags & FLAG_ALL_DAY) != 0;
+				event.hasAlarm = (flags & FLAG_HAS_ALARM) != 0;
+				event.isBirthday = (flags & FLAG_BIRTHDAY) != 0;
+				titles[i] = buffer.getInt();
+				locations[i] = buffer.getInt();
+				events.add(event);
+			}
+
+			final String[] strings = new String[buffer.getInt()];
+			for (int i = 0; i < strings.length; i++) {
+				final byte[] utf8 = new byte[buffer.getInt()];
+				buffer.get(utf8);
+				strings[i] = new String(utf8, "UTF-8");
+			}
+
+			for (int i = 0; i < count; i++) {
+				final Event event = events.get(i);
+				event.title = getString(strings, titles[i]);
+				event.location = getString(strings, locations[i]);
+				if (event.title == null)
+					throw new IOException("Event without title");
+			}
+			return events;
+		} catch (IOException e) {
+			Log.d(TAG, "Dropping snapshot " + name, e);
+		} catch (RuntimeException e) {
+			Log.d(TAG, "Dropping snapshot " + name, e);
+		} finally {
+			if (in != null)
+				try {
+					in.close();
+				} catch (IOException e) {
+					// ignore
+				}
+		}
+		context.deleteFile(name);
+		return null;
+	}
+
+	static void delete(final Context context, final int widgetId) {
+		context.deleteFile(String.format(FILE_FORMAT, widgetId));
+	}
+
+	private static int getIndex(final String string,
+			final List<String> strings, final Map<String, Integer> indices) {
+		if (string == null)
+			return -1;
+		Integer index = indices.get(string);
+		if (index == null) {
+			index = strings.size();
+			strings.add(string);
+			indices.put(string, index);
+		}
+		return index;
+	}
+
+	private static String getString(final String[] strings, final int index)
+			throws IOException {
+		if (index == -1)
+			return null;
+		if (index < 0 || index >= strings.length)
+			throw new IOException("Invalid string index " + index);
+		return strings[index];
+	}
+}
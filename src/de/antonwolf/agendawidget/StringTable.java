@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2011 by Anton Wolf
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.antonwolf.agendawidget;
+
+/**
+ * Interns strings, numbering them in the order they were added. Strings can
+ * be looked up by their characters, so text read into a CharArrayBuffer
+ * only becomes a String the first time it is seen.
+ * 
+ * @author Anton Wolf
+ */
+final class StringTable {
+	private String[] strings = new String[16];
+	private int size = 0;
+	/**
+	 * Open addressing hash table of indices into strings; -1 marks free
+	 * slots. Never more than half full.
+	 */
+	private int[] slots = newSlots(32);
+
+	int size() {
+		return size;
+	}
+
+	String get(final int index) {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("Index " + index + ", size "
+					+ size);
+		return strings[index];
+	}
+
+	/**
+	 * @return the index of the string, added if necessary
+	 */
+	int intern(final String string) {
+		final int mask = slots.length - 1;
+		for (int slot = string.hashCode() & mask;; slot = (slot + 1) & mask) {
+			final int index = slots[slot];
+			if (index == -1)
+				return add(string, slot);
+			if (strings[index].equals(string))
+				return index;
+		}
+	}
+
+	/**
+	 * Looks the characters up without allocating if they were interned
+	 * before
+	 * 
+	 * @return the index of the string, added if necessary
+	 */
+	int intern(final char[] data, final int length) {
+		int hash = 0; // as String.hashCode()
+		for (int i = 0; i < length; i++)
+			hash = 31 * hash + data[i];
+
+		final int mask = slots.length - 1;
+		for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+			final int index = slots[slot];
+			if (index == -1)
+				return add(new String(data, 0, length), slot);
+			if (equals(strings[index], data, length))
+				return index;
+		}
+	}
+
+	private int add(final String string, final int slot) {
+		if (size == strings.length) {
+			final String[] grown = new String[size * 2];
+			System.arraycopy(strings, 0, grown, 0, size);
+			strings = grown;
+		}
+		strings[size] = string;
+		slots[slot] = size;
+		size++;
+		if (size * 2 > slots.length)
+			rehash(slots.length * 2);
+		return size - 1;
+	}
+
+	private void rehash(final int capacity) {
+		slots = newSlots(capacity);
+		final int mask = capacity - 1;
+		for (int index = 0; index < size; index++) {
+			int slot = strings[index].hashCode() & mask;
+			while (slots[slot] != -1)
+				slot = (slot + 1) & mask;
+			slots[slot] = index;
+		}
+	}
+
+	private static int[] newSlots(final int capacity) {
+		final int[] slots = new int[capacity];
+		for (int i = 0; i < capacity; i++)
+			slots[i] = -1;
+		return slots;
+	}
+
+	private static boolean equals(final String string, final char[] data,
+			final int length) {
+		if (string.length() != length)
+			return false;
+		for (int i = 0; i < length; i++)
+			if (string.charAt(i) != data[i])
+				return false;
+		return true;
+	}
+}
@@ -22,21 +22,57 @@
 package de.antonwolf.agendawidget;
 
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
 import android.net.Uri;
+import android.os.Parcel;
+import android.text.Layout;
 import android.text.SpannableStringBuilder;
-import android.text.format.Time;
+import android.text.Spanned;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.text.TextUtils;
 import android.text.style.ForegroundColorSpan;
 import android.text.style.RelativeSizeSpan;
+import android.util.SparseArray;
 import android.view.View;
 import android.widget.RemoteViews;
 
 public class Style {
+	/**
+	 * Immutable spans that are reused instead of created for every row. A
+	 * span can only be attached once to a text, so a text that needs the
+	 * span several times gets further instances, which are kept as well.
+	 */
+	private final static class SharedSpans {
+		private final float proportion;
+		private final List<RelativeSizeSpan> spans = new ArrayList<RelativeSizeSpan>();
+
+		SharedSpans(final float proportion) {
+			this.proportion = proportion;
+		}
+
+		/**
+		 * @return a span that is not attached to the text yet
+		 */
+		synchronized RelativeSizeSpan get(final Spanned text) {
+			for (int i = 0; i < spans.size(); i++)
+				if (text.getSpanStart(spans.get(i)) == -1)
+					return spans.get(i);
+			final RelativeSizeSpan span = new RelativeSizeSpan(proportion);
+			spans.add(span);
+			return span;
+		}
+	}
+
 	private final long yesterdayStart;
 	private final long todayStart;
 	private final long tomorrowStart;
@@ -49,6 +85,11 @@ public class Style {
 	private final String formatToday;
 	private final String formatTomorrow;
 	private final String[] formatWeekdays;
+	private final DayClock.Days days;
+	/**
+	 * Dates formatted during this refresh, by local Julian day
+	 */
+	private final SparseArray<String> dateLabels = new SparseArray<String>();
 
 	protected final String packageName;
 
@@ -59,15 +100,40 @@ public class Style {
 	protected final static String COLOR_DOT = "■\t";
 	protected final static String COLOR_HIDDEN = "\t";
 	protected final static String SEPARATOR_COMMA = ", ";
+	/**
+	 * ImageSpans are not parceled, so the alarm icon is a glyph in text mode
+	 */
+	protected final static String ALARM_MARK = " \u266A";
+	protected final static int DATETIME_COLOR = 0xffbbbbbb;
+	/**
+	 * Text size and shadow of the WidgetText style in dp
+	 */
+	private final static float TEXT_SIZE = 13;
+	private final static float SHADOW_RADIUS = 1.5f;
 
 	protected final static long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
 	protected final static ForegroundColorSpan DATETIME_COLOR_SPAN = new ForegroundColorSpan(
-			0xffbbbbbb);
+			DATETIME_COLOR);
 	protected final static ForegroundColorSpan FOREGROUND_COLOR_SPAN = new ForegroundColorSpan(
 			0xffffffff);
+	private final static long FNV_OFFSET = 0xcbf29ce484222325L;
+	private final static long FNV_PRIME = 0x100000001b3L;
+
+	/**
+	 * Shared by all widgets; see {@link SharedSpans}
+	 */
+	private final static SharedSpans AM_PM_SPANS = new SharedSpans(0.5f);
+	private final static SharedSpans SPECIAL_DAY_SPANS = new SharedSpans(
+			0.75f);
+
 	private boolean widgetFull = false;
 	private final int maxLines;
 	private final List<Event> birthdayEvents;
+	/**
+	 * The birthdays already added, to drop the same birthday of another year
+	 * or calendar
+	 */
+	private final Set<Event> birthdaySet;
 	private final List<Event> agendaEvents;
 
 	public Style(final WidgetInfo info, final int widgetId, final Context c) {
@@ -86,90 +152,400 @@ public class Style {
 		formatWeekdays = c.getResources().getStringArray(
 				R.array.format_day_of_week);
 
-		// compute time ranges
-		final Time now = new Time();
-		now.setToNow();
-		final int julianDay = Time.getJulianDay(System.currentTimeMillis(),
-				now.gmtoff);
-
-		yearStart = now.setJulianDay(julianDay - now.yearDay);
-		now.year++;
-		yearEnd = now.toMillis(false);
-		yesterdayStart = now.setJulianDay(julianDay - 1);
-		todayStart = now.setJulianDay(julianDay);
-		tomorrowStart = now.setJulianDay(julianDay + 1);
-		dayAfterTomorrowStart = now.setJulianDay(julianDay + 2);
-		oneWeekFromNow = now.setJulianDay(julianDay + 8);
+		days = DayClock.get();
+		yearStart = days.yearStart;
+		yearEnd = days.yearEnd;
+		yesterdayStart = days.yesterdayStart;
+		todayStart = days.todayStart;
+		tomorrowStart = days.tomorrowStart;
+		dayAfterTomorrowStart = days.dayAfterTomorrowStart;
+		oneWeekFromNow = days.oneWeekFromNow;
 
 		maxLines = Integer.parseInt(info.lines);
 		birthdayEvents = new ArrayList<Event>(maxLines * 2);
+		birthdaySet = new HashSet<Event>(maxLines * 4);
 		agendaEvents = new ArrayList<Event>(maxLines);
 	}
 
 	public RemoteViews render() {
+		return render(null);
+	}
+
+	/**
+	 * @param rows
+	 *            Rows of the previous render that may be reused; or null
+	 */
+	public RemoteViews render(final RowCache rows) {
 		RemoteViews widget = new RemoteViews(packageName, R.layout.widget);
 		widget.removeAllViews(R.id.widget);
 		widget.setOnClickPendingIntent(R.id.widget, onClick);
 
-		final int calendarColor = info.calendarColor ? View.VISIBLE : View.GONE;
-
-		Iterator<Event> bdayIterator = birthdayEvents.iterator();
-		while (bdayIterator.hasNext()) {
-			final RemoteViews view = new RemoteViews(packageName,
-					R.layout.birthdays);
-			final Event left = bdayIterator.next();
-			view.setTextViewText(R.id.left_time, resizeText(formatTime(left)));
-			view.setTextViewText(R.id.left_title, resizeText(formatTitle(left)));
-
-			if (bdayIterator.hasNext()) {
-				final Event right = bdayIterator.next();
-				view.setTextViewText(R.id.right_time,
-						resizeText(formatTime(right)));
-				view.setTextViewText(R.id.right_title,
-						resizeText(formatTitle(right)));
-			} else {
-				view.setTextViewText(R.id.right_time, resizeText(""));
-				view.setTextViewText(R.id.right_title, resizeText(""));
-			}
+		final long settingsKey = getSettingsKey();
+		final int count = getCount();
+		for (int position = 0; position < count; position++)
+			widget.addView(R.id.widget, getViewAt(position, settingsKey, rows));
+		if (rows != null)
+			rows.finish();
+
+		final int opacityPercent = (int) (100 * info.opacity);
+		widget.setInt(R.id.background, "setImageLevel", opacityPercent);
+
+		return widget;
+	}
+
+	/**
+	 * Renders the whole agenda as one spannable into a single TextView. The
+	 * result needs only a handful of actions instead of several per row, so
+	 * its parcel is much smaller than the one of render(). Each line is
+	 * ellipsized like a row, since a wrapped line would push the last rows
+	 * out of the widget.
+	 * 
+	 * @param width
+	 *            The width of the agenda in pixels
+	 */
+	public RemoteViews renderText(final int width) {
+		final RemoteViews agenda = new RemoteViews(packageName, R.layout.agenda);
+		agenda.setTextViewText(R.id.agenda,
+				ellipsizeLines(getText(), newPaint(1), width));
+		return renderSingleView(agenda);
+	}
 
-			view.setViewVisibility(R.id.color, calendarColor);
-			widget.addView(R.id.widget, view);
+	/**
+	 * Renders a frame drawn by {@link #draw(Bitmap, float)} as the only view
+	 * of the widget, so the launcher neither inflates nor measures rows.
+	 */
+	public RemoteViews renderBitmap(final Bitmap frame) {
+		final RemoteViews agenda = new RemoteViews(packageName,
+				R.layout.agenda_image);
+		agenda.setImageViewBitmap(R.id.agenda_image, frame);
+		return renderSingleView(agenda);
+	}
+
+	private RemoteViews renderSingleView(final RemoteViews agenda) {
+		final RemoteViews widget = new RemoteViews(packageName, R.layout.widget);
+		widget.removeAllViews(R.id.widget);
+		widget.addView(R.id.widget, agenda);
+		widget.setOnClickPendingIntent(R.id.widget, onClick);
+		final int opacityPercent = (int) (100 * info.opacity);
+		widget.setInt(R.id.background, "setImageLevel", opacityPercent);
+		return widget;
+	}
+
+	private SpannableStringBuilder getText() {
+		final SpannableStringBuilder text = new SpannableStringBuilder();
+		for (int i = 0; i < birthdayEvents.size(); i += 2) {
+			appendLine(text);
+			if (info.calendarColor)
+				text.append(COLOR_HIDDEN);
+			appendBirthday(text, birthdayEvents.get(i));
+			if (i + 1 < birthdayEvents.size()) {
+				text.append('\t');
+				appendBirthday(text, birthdayEvents.get(i + 1));
+			}
 		}
 
 		for (Event event : agendaEvents) {
-			final RemoteViews view = new RemoteViews(packageName,
-					R.layout.event);
-			view.setTextViewText(R.id.time, resizeText(formatTime(event)));
-			CharSequence text = formatTitle(event);
+			appendLine(text);
+			if (info.calendarColor) {
+				final int start = text.length();
+				text.append(COLOR_DOT);
+				text.setSpan(new ForegroundColorSpan(0xff000000 | event.color),
+						start, start + 1, 0);
+			}
+			appendTime(text, event);
+			text.append(' ');
+			text.append(formatTitle(event));
 			if (event.location != null) {
-				final SpannableStringBuilder builder = new SpannableStringBuilder(
-						text);
-				final int from = builder.length();
-				builder.append(SEPARATOR_COMMA);
-				builder.append(event.location);
-				builder.setSpan(DATETIME_COLOR_SPAN, from, builder.length(), 0);
-				text = builder;
+				final int from = text.length();
+				text.append(SEPARATOR_COMMA);
+				text.append(event.location);
+				text.setSpan(new ForegroundColorSpan(DATETIME_COLOR), from,
+						text.length(), 0);
 			}
-			view.setTextViewText(R.id.text, resizeText(text));
+			if (event.hasAlarm)
+				text.append(ALARM_MARK);
+		}
 
-			int alarmFlag = event.hasAlarm ? View.VISIBLE : View.GONE;
-			view.setViewVisibility(R.id.event_alarm, alarmFlag);
-			view.setInt(R.id.color, "setColorFilter", event.color);
-			view.setViewVisibility(R.id.color, calendarColor);
-			widget.addView(R.id.widget, view);
+		return resizeText(text);
+	}
+
+	/**
+	 * Draws the text of {@link #renderText(int)} into the bitmap, spreading
+	 * the rows evenly over its height like the row layouts do.
+	 * 
+	 * @param scale
+	 *            The size of the bitmap relative to the widget
+	 */
+	public void draw(final Bitmap bitmap, final float scale) {
+		final TextPaint paint = newPaint(scale);
+		final Canvas canvas = new Canvas(bitmap);
+		final int width = bitmap.getWidth();
+		final SpannableStringBuilder text = ellipsizeLines(getText(), paint,
+				width);
+		final String lines = text.toString();
+		final float rowHeight = (float) bitmap.getHeight()
+				/ Math.max(1, getCount());
+
+		int lineStart = 0;
+		for (int row = 0; lineStart < lines.length(); row++) {
+			int lineEnd = lines.indexOf('\n', lineStart);
+			if (lineEnd == -1)
+				lineEnd = lines.length();
+			final CharSequence line = text.subSequence(lineStart, lineEnd);
+			final StaticLayout layout = new StaticLayout(line, paint, width,
+					Layout.Alignment.ALIGN_NORMAL, 1, 0, false);
+
+			canvas.save();
+			canvas.translate(0, row * rowHeight
+					+ (rowHeight - layout.getHeight()) / 2);
+			layout.draw(canvas);
+			canvas.restore();
+			lineStart = lineEnd + 1;
 		}
+	}
 
-		final int opacityPercent = (int) (100 * info.opacity);
-		widget.setInt(R.id.background, "setImageLevel", opacityPercent);
+	/**
+	 * @param scale
+	 *            The size of the text relative to the widget
+	 * @return a paint like the WidgetText style
+	 */
+	private TextPaint newPaint(final float scale) {
+		final TextPaint paint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+		paint.setColor(0xffffffff);
+		paint.setTextSize(TEXT_SIZE * info.density * scale);
+		paint.setShadowLayer(SHADOW_RADIUS * info.density * scale, 0, 0,
+				0xff000000);
+		return paint;
+	}
 
-		return widget;
+	/**
+	 * @return the text with every line cut to the width
+	 */
+	private static SpannableStringBuilder ellipsizeLines(
+			final SpannableStringBuilder text, final TextPaint paint,
+			final int width) {
+		final String lines = text.toString();
+		final SpannableStringBuilder result = new SpannableStringBuilder();
+		int lineStart = 0;
+		while (lineStart < lines.length()) {
+			int lineEnd = lines.indexOf('\n', lineStart);
+			if (lineEnd == -1)
+				lineEnd = lines.length();
+			appendLine(result);
+			result.append(TextUtils.ellipsize(
+					text.subSequence(lineStart, lineEnd), paint, width,
+					TextUtils.TruncateAt.END));
+			lineStart = lineEnd + 1;
+		}
+		return result;
+	}
+
+	private static void appendLine(final SpannableStringBuilder text) {
+		if (text.length() != 0)
+			text.append('\n');
+	}
+
+	private void appendBirthday(final SpannableStringBuilder text,
+			final Event event) {
+		appendTime(text, event);
+		text.append(' ');
+		text.append(formatTitle(event));
+	}
+
+	private void appendTime(final SpannableStringBuilder text,
+			final Event event) {
+		final int start = text.length();
+		formatTime(text, event);
+		text.setSpan(new ForegroundColorSpan(DATETIME_COLOR), start,
+				text.length(), 0);
+	}
+
+	/**
+	 * @return the number of bytes the views take up in a binder transaction
+	 */
+	public static int getParcelSize(final RemoteViews views) {
+		final Parcel parcel = Parcel.obtain();
+		try {
+			views.writeToParcel(parcel, 0);
+			return parcel.dataSize();
+		} finally {
+			parcel.recycle();
+		}
+	}
+
+	/**
+	 * @return the number of rows; birthdays are shown two per row above the
+	 *         other events
+	 */
+	private int getCount() {
+		return getBirthdayRowCount() + agendaEvents.size();
+	}
+
+	private int getBirthdayRowCount() {
+		return (birthdayEvents.size() + 1) / 2;
+	}
+
+	/**
+	 * @param rows
+	 *            Rows of the previous render that may be reused; or null
+	 */
+	private RemoteViews getViewAt(final int position, final long settingsKey,
+			final RowCache rows) {
+		final int birthdayRows = getBirthdayRowCount();
+		if (position < birthdayRows) {
+			final Event left = birthdayEvents.get(position * 2);
+			final Event right = position * 2 + 1 < birthdayEvents.size() ? birthdayEvents
+					.get(position * 2 + 1) : null;
+			final long key = getBirthdaysKey(settingsKey, left, right);
+			RemoteViews view = rows == null ? null : rows.get(key);
+			if (view == null) {
+				view = renderBirthdays(left, right);
+				if (rows != null)
+					rows.put(key, view);
+			}
+			return view;
+		}
+
+		final Event event = agendaEvents.get(position - birthdayRows);
+		final long key = getEventKey(settingsKey, event);
+		RemoteViews view = rows == null ? null : rows.get(key);
+		if (view == null) {
+			view = renderEvent(event);
+			if (rows != null)
+				rows.put(key, view);
+		}
+		return view;
+	}
+
+	private RemoteViews renderBirthdays(final Event left, final Event right) {
+		final RemoteViews view = new RemoteViews(packageName,
+				R.layout.birthdays);
+		view.setTextViewText(R.id.left_time, resizeText(formatTime(left)));
+		view.setTextViewText(R.id.left_title, resizeText(formatTitle(left)));
+
+		if (right != null) {
+			view.setTextViewText(R.id.right_time,
+					resizeText(formatTime(right)));
+			view.setTextViewText(R.id.right_title,
+					resizeText(formatTitle(right)));
+		} else {
+			view.setTextViewText(R.id.right_time, resizeText(""));
+			view.setTextViewText(R.id.right_title, resizeText(""));
+		}
+
+		view.setViewVisibility(R.id.color, info.calendarColor ? View.VISIBLE
+				: View.GONE);
+		return view;
+	}
+
+	private RemoteViews renderEvent(final Event event) {
+		final RemoteViews view = new RemoteViews(packageName, R.layout.event);
+		view.setTextViewText(R.id.time, resizeText(formatTime(event)));
+		CharSequence text = formatTitle(event);
+		if (event.location != null) {
+			final SpannableStringBuilder builder = new SpannableStringBuilder(
+					text);
+			final int from = builder.length();
+			builder.append(SEPARATOR_COMMA);
+			builder.append(event.location);
+			builder.setSpan(DATETIME_COLOR_SPAN, from, builder.length(), 0);
+			text = builder;
+		}
+		view.setTextViewText(R.id.text, resizeText(text));
+
+		int alarmFlag = event.hasAlarm ? View.VISIBLE : View.GONE;
+		view.setViewVisibility(R.id.event_alarm, alarmFlag);
+		view.setInt(R.id.color, "setColorFilter", event.color);
+		view.setViewVisibility(R.id.color, info.calendarColor ? View.VISIBLE
+				: View.GONE);
+		return view;
+	}
+
+	/**
+	 * @return a hash over everything render() displays, so unchanged widgets
+	 *         do not have to be updated
+	 */
+	public long getFingerprint() {
+		final long settingsKey = getSettingsKey();
+		long hash = hash(settingsKey, Float.floatToIntBits(info.opacity));
+
+		hash = hash(hash, birthdayEvents.size());
+		for (Event event : birthdayEvents)
+			hash = hash(hash, getEventKey(settingsKey, event));
+
+		hash = hash(hash, agendaEvents.size());
+		for (Event event : agendaEvents)
+			hash = hash(hash, getEventKey(settingsKey, event));
+		return hash;
+	}
+
+	/**
+	 * @return a hash over the settings and the day that the formatting of
+	 *         all rows depends on
+	 */
+	private long getSettingsKey() {
+		long hash = FNV_OFFSET;
+		hash = hash(hash, Float.floatToIntBits(info.fontSize));
+		hash = hash(hash, info.calendarColor ? 1 : 0);
+		hash = hash(hash, info.twentyfourHours ? 1 : 0);
+		hash = hash(hash, info.endTime ? 1 : 0);
+		hash = hash(hash, info.tomorrowYesterday ? 1 : 0);
+		hash = hash(hash, info.weekday ? 1 : 0);
+		hash = hash(hash, info.dateFormat.ordinal());
+		hash = hash(hash, todayStart);
+		hash = hash(hash, formatToday);
+		hash = hash(hash, formatTomorrow);
+		hash = hash(hash, formatYesterday);
+		return hash(hash, formatWeekdays[0]);
+	}
+
+	/**
+	 * @return a hash over everything an event row displays
+	 */
+	private static long getEventKey(long hash, final Event event) {
+		hash = hash(hash, event.startMillis);
+		hash = hash(hash, event.endMillis);
+		hash = hash(hash, event.startDay);
+		hash = hash(hash, event.endDay);
+		hash = hash(hash, event.allDay ? 1 : 0);
+		hash = hash(hash, event.title == null ? "" : event.title);
+		hash = hash(hash, event.location == null ? "" : event.location);
+		hash = hash(hash, event.color);
+		return hash(hash, event.hasAlarm ? 1 : 0);
+	}
+
+	private static long getBirthdaysKey(long hash, final Event left,
+			final Event right) {
+		hash = getEventKey(hash, left);
+		return right == null ? hash(hash, 0) : getEventKey(hash, right);
+	}
+
+	private static long hash(final long hash, final long value) {
+		return hash(hash(hash, (int) value), (int) (value >>> 32));
+	}
+
+	private static long hash(long hash, final int value) {
+		for (int shift = 0; shift < 32; shift += 8) {
+			hash ^= (value >>> shift) & 0xff;
+			hash *= FNV_PRIME;
+		}
+		return hash;
+	}
+
+	private static long hash(long hash, final CharSequence text) {
+		final int length = text.length();
+		for (int i = 0; i < length; i++) {
+			hash ^= text.charAt(i);
+			hash *= FNV_PRIME;
+		}
+		return hash(hash, length);
 	}
 
 	public void addEvent(Event e) {
 		widgetFull = Math.ceil(birthdayEvents.size() / 2.0)
 				+ agendaEvents.size() >= maxLines;
 		if (e.isBirthday) {
-			if (!birthdayEvents.contains(e))
+			if (birthdaySet.add(e))
 				birthdayEvents.add(e);
 		} else if (!widgetFull)
 			agendaEvents.add(e);
@@ -193,54 +569,65 @@ public class Style {
 
 	protected CharSequence formatTime(final Event event) {
 		final SpannableStringBuilder builder = new SpannableStringBuilder();
+		formatTime(builder, event);
+		return builder;
+	}
+
+	/**
+	 * Appends the formatted time of the event to the builder
+	 */
+	protected void formatTime(final SpannableStringBuilder builder,
+			final Event event) {
 		final boolean isStartToday = (todayStart <= event.startMillis && event.startMillis <= tomorrowStart);
 		final boolean isEndToday = (todayStart <= event.endMillis && event.endMillis <= tomorrowStart);
 		final boolean showStartDay = !isStartToday || !isEndToday
 				|| event.allDay;
 		if (showStartDay)
-			builder.append(formatDay(event.startMillis, event.startDay));
+			formatDay(builder, event.startMillis, event.startDay);
 		// all-Day events
 		if (event.allDay) {
 			if (event.startDay != event.endDay) {
 				builder.append('-');
-				builder.append(formatDay(event.endMillis, event.endDay));
+				formatDay(builder, event.endMillis, event.endDay);
 			}
 		}
 		// events with no duration
 		else if (!info.endTime || event.startMillis == event.endMillis) {
 			if (showStartDay)
 				builder.append(' ');
-			builder.append(formatHour(event.startMillis, info));
+			formatHour(builder, event.startMillis);
 		} else {
 			// events with duration
 			if (showStartDay)
 				builder.append(' ');
-			builder.append(formatHour(event.startMillis, info));
+			formatHour(builder, event.startMillis);
 			builder.append('-');
 
 			if (event.endMillis - event.startMillis > DAY_IN_MILLIS) {
-				builder.append(formatDay(event.endMillis, event.endDay));
+				formatDay(builder, event.endMillis, event.endDay);
 				builder.append(' ');
 			}
-			builder.append(formatHour(event.endMillis, info));
+			formatHour(builder, event.endMillis);
 		}
-		return builder;
 	}
 
-	protected CharSequence formatHour(final long time, final WidgetInfo info) {
-		if (info.twentyfourHours)
-			return String.format("%1$tk:%1$tM", time);
+	protected void formatHour(final SpannableStringBuilder builder,
+			final long time) {
+		final int minute = TimeLabels.getMinuteOfDay(time,
+				days.getOffset(time));
+		if (info.twentyfourHours) {
+			builder.append(TimeLabels.get24Hours(minute));
+			return;
+		}
 
-		SpannableStringBuilder builder = new SpannableStringBuilder();
-		builder.append(String.format("%1$tl:%1$tM", time));
+		builder.append(TimeLabels.get12Hours(minute));
 		final int start = builder.length();
-		builder.append(String.format("%1$tp", time));
-		final int end = builder.length();
-		builder.setSpan(new RelativeSizeSpan(0.5f), start, end, 0);
-		return builder;
+		builder.append(TimeLabels.getAmPm(minute));
+		builder.setSpan(AM_PM_SPANS.get(builder), start, builder.length(), 0);
 	}
 
-	private CharSequence formatDay(long time, int day) {
+	private void formatDay(final SpannableStringBuilder builder,
+			final long time, final int day) {
 		final boolean tomorrowYesterday = info.tomorrowYesterday;
 		final long specialStart = tomorrowYesterday ? yesterdayStart
 				: todayStart;
@@ -258,16 +645,31 @@ public class Style {
 			else
 				result = formatTomorrow;
 
-			final SpannableStringBuilder builder = new SpannableStringBuilder(
-					result);
-			builder.setSpan(new RelativeSizeSpan(0.75f), 0, builder.length(), 0);
-			return builder;
+			final int start = builder.length();
+			builder.append(result);
+			builder.setSpan(SPECIAL_DAY_SPANS.get(builder), start,
+					builder.length(), 0);
+		} else if (todayStart <= time && time < weekEnd) // this week?
+			builder.append(formatWeekdays[(day + 1) % 7]);
+		else
+			builder.append(formatDate(time));
+	}
+
+	/**
+	 * @return the date in the short format for this year or the long format,
+	 *         formatted only once per day and refresh
+	 */
+	private String formatDate(final long time) {
+		final int localDay = days.getJulianDay(time);
+		String result = dateLabels.get(localDay);
+		if (result == null) {
+			if (yearStart <= time && time < yearEnd) // this year?
+				result = String.format(info.dateFormat.shortFormat, time);
+			else
+				result = String.format(info.dateFormat.longFormat, time);
+			dateLabels.put(localDay, result);
 		}
-		if (todayStart <= time && time < weekEnd) // this week?
-			return formatWeekdays[(day + 1) % 7];
-		if (yearStart <= time && time < yearEnd) // this year?
-			return String.format(info.dateFormat.shortFormat, time);
-		return String.format(info.dateFormat.longFormat, time);
+		return result;
 	}
 
 	private SpannableStringBuilder resizeText(CharSequence text) {
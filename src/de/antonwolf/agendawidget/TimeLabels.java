@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2011 by Anton Wolf
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.antonwolf.agendawidget;
+
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Labels for every minute of the day, formatted once per locale when they
+ * are first needed instead of by String.format() for every row.
+ * 
+ * @author Anton Wolf
+ */
+final class TimeLabels {
+	private final static long MINUTE_IN_MILLIS = 60 * 1000;
+	private final static long DAY_IN_MILLIS = 24 * 60 * MINUTE_IN_MILLIS;
+	private final static int MINUTES_PER_DAY = 24 * 60;
+
+	private static Locale locale;
+	private static Calendar calendar;
+	private static String[] hours24;
+	private static String[] hours12;
+	private static String[] amPm;
+
+	private TimeLabels() {
+	}
+
+	/**
+	 * @param offset
+	 *            The offset from UTC at the time in milliseconds
+	 * @return the minute of the day the time falls on
+	 */
+	static int getMinuteOfDay(final long time, final int offset) {
+		final long local = time + offset;
+		return (int) ((local % DAY_IN_MILLIS + DAY_IN_MILLIS) % DAY_IN_MILLIS
+				/ MINUTE_IN_MILLIS);
+	}
+
+	/**
+	 * @return the minute formatted as "%tk:%tM", e.g. "9:05" or "21:05"
+	 */
+	static synchronized String get24Hours(final int minute) {
+		checkLocale();
+		if (hours24[minute] == null)
+			hours24[minute] = format("%1$tk:%1$tM", minute);
+		return hours24[minute];
+	}
+
+	/**
+	 * @return the minute formatted as "%tl:%tM", e.g. "9:05"
+	 */
+	static synchronized String get12Hours(final int minute) {
+		checkLocale();
+		if (hours12[minute] == null)
+			hours12[minute] = format("%1$tl:%1$tM", minute);
+		return hours12[minute];
+	}
+
+	/**
+	 * @return the minute formatted as "%tp", e.g. "am"
+	 */
+	static synchronized String getAmPm(final int minute) {
+		checkLocale();
+		final int half = minute < MINUTES_PER_DAY / 2 ? 0 : 1;
+		if (amPm[half] == null)
+			amPm[half] = format("%1$tp", minute);
+		return amPm[half];
+	}
+
+	private static String format(final String format, final int minute) {
+		calendar.set(Calendar.HOUR_OF_DAY, minute / 60);
+		calendar.set(Calendar.MINUTE, minute % 60);
+		return String.format(format, calendar);
+	}
+
+	private static void checkLocale() {
+		final Locale current = Locale.getDefault();
+		if (current.equals(locale))
+			return;
+		locale = current;
+		// UTC has no daylight saving time, so every minute of the day exists
+		calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+		hours24 = new String[MINUTES_PER_DAY];
+		hours12 = new String[MINUTES_PER_DAY];
+		amPm = new String[2];
+	}
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2011 by Anton Wolf
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.antonwolf.agendawidget;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The rows of one widget read by its last query, together with some spare
+ * rows behind the last displayed one. Between two changes of the calendar
+ * every later state of the widget follows from these rows alone: rows drop
+ * off when they end, the spare rows move up, and the day labels change
+ * with the Style of the new day. So an alarm can display the next state
+ * without querying the provider again.
+ * 
+ * @author Anton Wolf
+ */
+final class Timeline {
+	/**
+	 * Rows read after the widget was full, as far as the query window that
+	 * filled it reaches; rows that end are replaced from them
+	 */
+	final static int SPARE_ROWS = 8;
+
+	private final WidgetInfo info;
+	private final int generation;
+	private final Event[] rows;
+	/**
+	 * Rows beginning after this time were not read; Long.MAX_VALUE if there
+	 * are no further rows behind the spare ones
+	 */
+	final long end;
+
+	/**
+	 * @param generation
+	 *            The generation of the {@link EventCache} when the query
+	 *            started
+	 * @param end
+	 *            The begin of the last row read, or Long.MAX_VALUE if all
+	 *            rows were read
+	 */
+	Timeline(final WidgetInfo info, final int generation,
+			final List<Event> events, final List<Event> spares,
+			final long end) {
+		this.info = info;
+		this.generation = generation;
+		this.end = end;
+		rows = new Event[events.size() + spares.size()];
+		int i = 0;
+		for (final Event event : events)
+			rows[i++] = event;
+		for (final Event event : spares)
+			rows[i++] = event;
+	}
+
+	/**
+	 * @return true if there are no further rows behind the spare ones
+	 */
+	boolean isComplete() {
+		return end == Long.MAX_VALUE;
+	}
+
+	/**
+	 * @return the rows that did not end yet in the order they were read, or
+	 *         null if the settings or the calendar changed since the query
+	 */
+	List<Event> get(final WidgetInfo info, final long now) {
+		if (info != this.info || generation != EventCache.getGeneration())
+			return null;
+
+		final DayClock.Days days = DayClock.get(now);
+		final List<Event> result = new ArrayList<Event>(rows.length);
+		// the rows that already ended are dropped, like in the query; rows
+		// that began before the query window still overlap it
+		for (final Event event : rows)
+			if (event.allDay ? event.endDay >= days.today
+					: event.endMillis > now)
+				result.add(event);
+		return result;
+	}
+}
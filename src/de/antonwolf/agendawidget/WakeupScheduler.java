@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2011 by Anton Wolf
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.antonwolf.agendawidget;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.appwidget.AppWidgetManager;
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+import android.util.SparseArray;
+
+/**
+ * Keeps a single alarm for the earliest update deadline of all widgets,
+ * instead of one alarm per widget. The alarm is delayed by up to
+ * R.integer.wakeup_slack seconds onto a multiple of the slack, so that
+ * deadlines that are close together are handled by one wakeup; a slack of
+ * 0 wakes up exactly at every deadline.
+ * 
+ * @author Anton Wolf
+ */
+final class WakeupScheduler {
+	private final static String TAG = "AgendaWidget";
+	private final static String ACTION_WAKEUP = "wakeup";
+	private final static String EXTRA_DEADLINES = "deadlines";
+	/**
+	 * Wake up a bit after the deadline, so that the event has surely ended
+	 */
+	private final static long DELAY = 1000;
+
+	/**
+	 * widget ID -> update deadline
+	 */
+	private final static SparseArray<Long> deadlines = new SparseArray<Long>();
+	private static long alarm = Long.MAX_VALUE;
+
+	private WakeupScheduler() {
+	}
+
+	static boolean isWakeup(final Intent intent) {
+		return ACTION_WAKEUP.equals(intent.getAction());
+	}
+
+	/**
+	 * Sets the time at which the widget has to be updated next
+	 */
+	static synchronized void schedule(final Context context,
+			final int widgetId, final long deadline) {
+		deadlines.put(widgetId, deadline);
+		update(context);
+	}
+
+	/**
+	 * Forgets the deadline of a deleted widget
+	 */
+	static synchronized void remove(final Context context, final int widgetId) {
+		if (deadlines.get(widgetId) == null)
+			return;
+		deadlines.delete(widgetId);
+		update(context);
+	}
+
+	/**
+	 * Removes the widgets whose deadlines have passed from the schedule and
+	 * sets the alarm for the remaining ones
+	 * 
+	 * @param intent
+	 *            The intent of the alarm; it carries the schedule in case
+	 *            the process has been restarted since
+	 * @return the IDs of the widgets to update
+	 */
+	static synchronized int[] takeDue(final Context context,
+			final Intent intent) {
+		final int[] ids = intent
+				.getIntArrayExtra(AppWidgetManager.EXTRA_APPWIDGET_IDS);
+		final long[] times = intent.getLongArrayExtra(EXTRA_DEADLINES);
+		if (ids != null && times != null)
+			for (int i = 0; i < ids.length; i++)
+				if (deadlines.get(ids[i]) == null)
+					deadlines.put(ids[i], times[i]);
+
+		final long now = System.currentTimeMillis();
+		final int[] due = new int[deadlines.size()];
+		int count = 0;
+		for (int i = 0; i < deadlines.size(); i++)
+			if (deadlines.valueAt(i) + DELAY <= now)
+				due[count++] = deadlines.keyAt(i);
+		for (int i = 0; i < count; i++)
+			deadlines.delete(due[i]);
+
+		Log.d(TAG, "WakeupScheduler: wakeup for " + count + " of "
+				+ (count + deadlines.size()) + " widgets");
+		alarm = Long.MAX_VALUE; // this alarm has fired
+		update(context);
+
+		final int[] result = new int[count];
+		System.arraycopy(due, 0, result, 0, count);
+		return result;
+	}
+
+	/**
+	 * Moves the alarm to the earliest deadline
+	 */
+	private static void update(final Context context) {
+		long earliest = Long.MAX_VALUE;
+		for (int i = 0; i < deadlines.size(); i++)
+			earliest = Math.min(earliest, deadlines.valueAt(i));
+
+		long time = Long.MAX_VALUE;
+		if (earliest != Long.MAX_VALUE) {
+			time = earliest + DELAY;
+			final long slack = context.getResources().getInteger(
+					R.integer.wakeup_slack) * 1000L;
+			if (slack > 0)
+				time = (time + slack - 1) / slack * slack;
+		}
+		final AlarmManager alarmManager = (AlarmManager) context
+				.getSystemService(Context.ALARM_SERVICE);
+		final int[] ids = new int[deadlines.size()];
+		final long[] times = new long[deadlines.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = deadlines.keyAt(i);
+			times[i] = deadlines.valueAt(i);
+		}
+		final Intent intent = new Intent(ACTION_WAKEUP, null, context,
+				WidgetService.class);
+		intent.putExtra(AppWidgetManager.EXTRA_APPWIDGET_IDS, ids);
+		intent.putExtra(EXTRA_DEADLINES, times);
+		// updates the schedule of a pending alarm, even if it stays
+		final PendingIntent pending = PendingIntent.getService(context, 0,
+				intent, PendingIntent.FLAG_UPDATE_CURRENT);
+		if (time == alarm)
+			return;
+		alarm = time;
+		if (time == Long.MAX_VALUE) {
+			alarmManager.cancel(pending);
+			Log.d(TAG, "WakeupScheduler: no alarm");
+		} else {
+			// RTC does not wake the device, the alarm waits until it is
+			// awake anyway
+			alarmManager.set(AlarmManager.RTC, time, pending);
+			Log.d(TAG, "WakeupScheduler: alarm in "
+					+ (time - System.currentTimeMillis()) + " ms for "
+					+ ids.length + " widgets");
+		}
+	}
+}
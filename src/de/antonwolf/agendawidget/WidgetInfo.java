@@ -21,15 +21,12 @@
  */
 package de.antonwolf.agendawidget;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 import android.appwidget.AppWidgetManager;
 import android.appwidget.AppWidgetProviderInfo;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.res.Resources;
-import android.database.Cursor;
-import android.net.Uri;
 import android.preference.PreferenceManager;
 import android.util.DisplayMetrics;
 import android.view.WindowManager;
@@ -116,26 +113,56 @@ public final class WidgetInfo {
 	public final DateFormat dateFormatDefault;
 	public static final String dateFormatKey = "dateFormat";
 
-	public final Map<Integer, CalendarPreferences> calendars;
+	/**
+	 * The size of the widget in pixels and the density it is drawn with
+	 */
+	public final int width;
+	public final int height;
+	public final float density;
+
+	/**
+	 * All calendars, ordered by display name
+	 */
+	public final CalendarPreferences[] calendars;
+	/**
+	 * The IDs of the enabled calendars, sorted ascending
+	 */
+	public final int[] enabledCalendars;
 	private static final String CALENDARS_KEY = "calendar_%d";
 
 	public WidgetInfo(int widgetId, Context context) {
-		this.widgetId = widgetId;
-		final SharedPreferences prefs = context.getSharedPreferences(
-				getSharedPreferencesName(widgetId), Context.MODE_PRIVATE);
-		final AppWidgetManager manager = AppWidgetManager.getInstance(context);
-		final AppWidgetProviderInfo widgetInfo = manager
-				.getAppWidgetInfo(widgetId);
+		this(widgetId, context, CalendarCache.get(context));
+	}
 
-		final WindowManager winManager = (WindowManager) context
-				.getSystemService(Context.WINDOW_SERVICE);
-		final DisplayMetrics metrics = new DisplayMetrics();
-		winManager.getDefaultDisplay().getMetrics(metrics);
+	/**
+	 * @param calendars
+	 *            The result of {@link CalendarCache#get(Context)}
+	 */
+	public WidgetInfo(int widgetId, Context context,
+			CalendarCache.Calendars calendars) {
+		this(widgetId, context.getSharedPreferences(
+				getSharedPreferencesName(widgetId), Context.MODE_PRIVATE),
+				context.getResources(), AppWidgetManager.getInstance(context)
+						.getAppWidgetInfo(widgetId), getDensity(context),
+				calendars);
+	}
 
-		final int heightInCells = (int) (widgetInfo.minHeight / metrics.density + 2) / 74;
-		final int widthInCells = (int) (widgetInfo.minWidth / metrics.density + 2) / 74;
+	/**
+	 * @param widgetInfo
+	 *            The provider of the widget, which determines its size
+	 * @param density
+	 *            The density of the display
+	 */
+	WidgetInfo(int widgetId, SharedPreferences prefs, Resources res,
+			AppWidgetProviderInfo widgetInfo, float density,
+			CalendarCache.Calendars calendars) {
+		this.widgetId = widgetId;
+		width = widgetInfo.minWidth;
+		height = widgetInfo.minHeight;
+		this.density = density;
 
-		final Resources res = context.getResources();
+		final int heightInCells = (int) (widgetInfo.minHeight / density + 2) / 74;
+		final int widthInCells = (int) (widgetInfo.minWidth / density + 2) / 74;
 
 		birthdaysDefault = widthInCells > 2 ? BIRTHDAY_SPECIAL
 				: BIRTHDAY_NORMAL;
@@ -169,41 +196,48 @@ public final class WidgetInfo {
 		dateFormat = DateFormat.valueOf(prefs.getString(dateFormatKey,
 				dateFormatDefault.toString()));
 
-		calendars = getCalendars(context, widgetId);
+		this.calendars = new CalendarPreferences[calendars.size()];
+		int enabledCount = 0;
+		for (int i = 0; i < calendars.size(); i++) {
+			this.calendars[i] = new CalendarPreferences(prefs,
+					calendars.ids[i], calendars.displayNames[i],
+					calendars.colors[i]);
+			if (this.calendars[i].enabled)
+				enabledCount++;
+		}
+		enabledCalendars = new int[enabledCount];
+		for (final CalendarPreferences calendar : this.calendars)
+			if (calendar.enabled)
+				enabledCalendars[--enabledCount] = calendar.calendarId;
+		Arrays.sort(enabledCalendars);
 	}
 
-	public static String getSharedPreferencesName(int widgetId) {
-		return "de.antonwolf.agendawidget_" + widgetId;
+	/**
+	 * @return true if events of the calendar are displayed
+	 */
+	public boolean isEnabled(final int calendarId) {
+		return Arrays.binarySearch(enabledCalendars, calendarId) >= 0;
 	}
 
-	private static Map<Integer, CalendarPreferences> getCalendars(
-			Context context, int widgetId) {
-		Cursor cursor = null;
-		final SharedPreferences prefs = context.getSharedPreferences(
-				getSharedPreferencesName(widgetId), Context.MODE_PRIVATE);
-		try {
-			cursor = context.getContentResolver().query(
-					Uri.parse("content://com.android.calendar/calendars"),
-					new String[] { "_id", "displayName", "color" }, null, null,
-					"displayName ASC");
-			final Map<Integer, CalendarPreferences> calendars = new HashMap<Integer, CalendarPreferences>(
-					cursor.getCount());
-
-			while (cursor.moveToNext())
-				calendars.put(
-						cursor.getInt(0),
-						new CalendarPreferences(prefs, cursor.getInt(0), cursor
-								.getString(1), cursor.getInt(2)));
-			return calendars;
-		} finally {
-			if (null != cursor)
-				cursor.close();
-		}
+	private static float getDensity(Context context) {
+		final WindowManager winManager = (WindowManager) context
+				.getSystemService(Context.WINDOW_SERVICE);
+		final DisplayMetrics metrics = new DisplayMetrics();
+		winManager.getDefaultDisplay().getMetrics(metrics);
+		return metrics.density;
+	}
+
+	public static String getSharedPreferencesName(int widgetId) {
+		return "de.antonwolf.agendawidget_" + widgetId;
 	}
 
 	public static void delete(Context context, int widgetId) {
 		context.getSharedPreferences(getSharedPreferencesName(widgetId),
 				Context.MODE_PRIVATE).edit().clear().commit();
+		WidgetInfoCache.remove(context, widgetId);
+		SnapshotFile.delete(context, widgetId);
+		FrameCache.delete(widgetId);
+		WakeupScheduler.remove(context, widgetId);
 	}
 
 }
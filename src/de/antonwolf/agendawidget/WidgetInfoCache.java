@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2011 by Anton Wolf
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.antonwolf.agendawidget;
+
+import android.appwidget.AppWidgetManager;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
+import android.content.res.Configuration;
+import android.util.Log;
+import android.util.SparseArray;
+
+/**
+ * Keeps the WidgetInfo of every widget in memory, so that refreshes do not
+ * read preferences, display metrics and calendars every time. An entry is
+ * rebuilt when the preferences of its widget change, all entries are
+ * rebuilt when the calendars (see {@link CalendarCache}) or the
+ * configuration change.
+ * 
+ * @author Anton Wolf
+ */
+public final class WidgetInfoCache {
+	private final static class PreferenceListener implements
+			OnSharedPreferenceChangeListener {
+		private final int widgetId;
+
+		PreferenceListener(final int widgetId) {
+			this.widgetId = widgetId;
+		}
+
+		@Override
+		public void onSharedPreferenceChanged(final SharedPreferences prefs,
+				final String key) {
+			invalidate(widgetId);
+		}
+	}
+
+	private final static String TAG = "AgendaWidget";
+
+	private final static SparseArray<WidgetInfo> infos = new SparseArray<WidgetInfo>();
+	/**
+	 * SharedPreferences only hold weak references to their listeners
+	 */
+	private final static SparseArray<PreferenceListener> listeners = new SparseArray<PreferenceListener>();
+	private static Configuration configuration;
+	private static int hits = 0;
+	private static int misses = 0;
+
+	private WidgetInfoCache() {
+	}
+
+	/**
+	 * @return the info of the widget, or null if there is no such widget
+	 */
+	public static WidgetInfo get(final Context context, final int widgetId) {
+		return get(context, new int[] { widgetId })[0];
+	}
+
+	/**
+	 * @return the infos of the widgets; null for IDs without a widget
+	 */
+	public static synchronized WidgetInfo[] get(final Context context,
+			final int[] widgetIds) {
+		checkConfiguration(context);
+
+		final WidgetInfo[] result = new WidgetInfo[widgetIds.length];
+		for (int i = 0; i < widgetIds.length; i++) {
+			final int widgetId = widgetIds[i];
+			result[i] = infos.get(widgetId);
+			if (result[i] != null) {
+				hits++;
+				continue;
+			}
+			misses++;
+			if (null == AppWidgetManager.getInstance(context).getAppWidgetInfo(
+					widgetId))
+				continue;
+			result[i] = new WidgetInfo(widgetId, context,
+					CalendarCache.get(context));
+			infos.put(widgetId, result[i]);
+			listen(context, widgetId);
+		}
+		Log.d(TAG, "WidgetInfoCache: " + hits + " hits, " + misses
+				+ " misses");
+		return result;
+	}
+
+	/**
+	 * Rebuilds the info of the widget on its next use
+	 */
+	public static synchronized void invalidate(final int widgetId) {
+		infos.remove(widgetId);
+	}
+
+	/**
+	 * Rebuilds the infos of all widgets on their next use
+	 */
+	public static synchronized void invalidateAll() {
+		infos.clear();
+	}
+
+	/**
+	 * Forgets a deleted widget
+	 */
+	public static synchronized void remove(final Context context,
+			final int widgetId) {
+		infos.remove(widgetId);
+		final PreferenceListener listener = listeners.get(widgetId);
+		if (listener == null)
+			return;
+		getPreferences(context, widgetId)
+				.unregisterOnSharedPreferenceChangeListener(listener);
+		listeners.remove(widgetId);
+	}
+
+	private static void listen(final Context context, final int widgetId) {
+		if (listeners.get(widgetId) != null)
+			return;
+		final PreferenceListener listener = new PreferenceListener(widgetId);
+		getPreferences(context, widgetId)
+				.registerOnSharedPreferenceChangeListener(listener);
+		listeners.put(widgetId, listener);
+	}
+
+	private static SharedPreferences getPreferences(final Context context,
+			final int widgetId) {
+		return context.getApplicationContext().getSharedPreferences(
+				WidgetInfo.getSharedPreferencesName(widgetId),
+				Context.MODE_PRIVATE);
+	}
+
+	/**
+	 * Locale, orientation and density change the defaults and sizes in the
+	 * infos
+	 */
+	private static void checkConfiguration(final Context context) {
+		final Configuration current = context.getResources()
+				.getConfiguration();
+		if (configuration != null && configuration.diff(current) == 0)
+			return;
+		if (configuration != null)
+			Log.d(TAG, "WidgetInfoCache: configuration changed");
+		infos.clear();
+		configuration = new Configuration(current);
+	}
+}
@@ -21,175 +21,611 @@
  */
 package de.antonwolf.agendawidget;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
 
-import android.app.AlarmManager;
-import android.app.IntentService;
-import android.app.PendingIntent;
+import android.app.Service;
 import android.appwidget.AppWidgetManager;
-import android.appwidget.AppWidgetProviderInfo;
 import android.content.Context;
 import android.content.Intent;
-import android.database.Cursor;
-import android.net.Uri;
+import android.content.res.AssetManager;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
 import android.text.format.DateUtils;
-import android.text.format.Time;
+import android.util.DisplayMetrics;
 import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+import android.util.SparseIntArray;
+import android.widget.RemoteViews;
+
+public final class WidgetService extends Service {
+	/**
+	 * The state of one widget while it is being refreshed
+	 */
+	private final static class Refresh {
+		final WidgetInfo info;
+		final Style style;
+		final List<Event> events = new ArrayList<Event>();
+		/**
+		 * Rows read after the widget was full, see Timeline
+		 */
+		final List<Event> spares = new ArrayList<Event>(
+				Timeline.SPARE_ROWS);
+		long nextUpdate;
+		int window = -1;
+		/**
+		 * The position of the next birthday of the index to display
+		 */
+		int birthday = 0;
+		/**
+		 * True if all rows have been read
+		 */
+		boolean complete = false;
+		/**
+		 * The begin of the last row read for this widget; rows beginning
+		 * later were not read unless complete
+		 */
+		long read = Long.MIN_VALUE;
+
+		Refresh(final WidgetInfo info, final Style style, final long nextUpdate) {
+			this.info = info;
+			this.style = style;
+			this.nextUpdate = nextUpdate;
+		}
+
+		void add(final Event event) {
+			if (style.isFull()) {
+				spares.add(event);
+				return;
+			}
+			style.addEvent(event);
+			events.add(event);
+			if (!event.allDay && event.endMillis < nextUpdate)
+				nextUpdate = event.endMillis;
+		}
+
+		/**
+		 * @return true if the widget and its spare rows are full
+		 */
+		boolean isDone() {
+			return style.isFull() && spares.size() >= Timeline.SPARE_ROWS;
+		}
+	}
 
-public final class WidgetService extends IntentService {
 	private static final String TAG = "AgendaWidget";
 	private static final String THEAD_NAME = "WidgetServiceThead";
 
-	private static Pattern[] birthdayPatterns;
+	private static final String EXTRA_REASON = "reason";
+	/**
+	 * Refresh caused by an alarm or the system's widget update
+	 */
+	public static final int REASON_PERIODIC = 0;
+	/**
+	 * Refresh caused by a change of the calendar provider
+	 */
+	public static final int REASON_OBSERVER = 1;
+	/**
+	 * Refresh caused by the user, e.g. by changing the settings
+	 */
+	public static final int REASON_USER = 2;
+	/**
+	 * Refresh caused by a change of the time zone, the clock or the date
+	 */
+	public static final int REASON_CLOCK = 3;
+
+	private static BirthdayMatcher birthdayMatcher;
+
+	/**
+	 * Rough guess of how much time one line of the widget covers
+	 */
+	private final static long LINE_DURATION = 6 * DateUtils.HOUR_IN_MILLIS;
 
-	private final static String CURSOR_FORMAT = "content://com.android.calendar/instances/when/%1$s/%2$s";
-	private final static long SEARCH_DURATION = 2 * DateUtils.YEAR_IN_MILLIS;
-	private final static String CURSOR_SORT = "begin ASC, end DESC, title ASC";
-	private final static String[] CURSOR_PROJECTION = new String[] { "title",
-			"color", "eventLocation", "allDay", "startDay", "endDay", "end",
-			"hasAlarm", "calendar_id", "begin" };
-	public final static int COL_TITLE = 0;
-	public final static int COL_COLOR = 1;
-	public final static int COL_LOCATION = 2;
-	public final static int COL_ALL_DAY = 3;
-	public final static int COL_START_DAY = 4;
-	public final static int COL_END_DAY = 5;
-	public final static int COL_END_MILLIS = 6;
-	public final static int COL_HAS_ALARM = 7;
-	public final static int COL_CALENDAR = 8;
-	public final static int COL_START_MILLIS = 9;
+	/**
+	 * Agendas whose row views parcel to more bytes than this are sent as a
+	 * single spannable instead, and if that is still too large, as a bitmap,
+	 * to stay well below the binder limit
+	 */
+	private final static int MAX_PARCEL_SIZE = 32 * 1024;
 
-	private static long todayStart;
-	private static int today;
+	/**
+	 * Margins of the agenda inside the widget in dp, see widget.xml
+	 */
+	private final static int MARGIN_HORIZONTAL = 16;
+	private final static int MARGIN_VERTICAL = 6;
 
-	private final static Pattern IS_EMPTY_PATTERN = Pattern.compile("^\\s*$");
+	/**
+	 * The search window each widget needed on its last update
+	 */
+	private final static SparseIntArray searchWindows = new SparseIntArray();
 
-	public WidgetService() {
-		super(THEAD_NAME);
+	/**
+	 * The widgets that have been updated since the process was started
+	 */
+	private final static SparseBooleanArray updatedWidgets = new SparseBooleanArray();
+
+	/**
+	 * The fingerprint of the views that were last sent to each widget
+	 */
+	private final static SparseArray<Long> fingerprints = new SparseArray<Long>();
+	private static int skippedUpdates = 0;
+	private final static SparseArray<RowCache> rowCaches = new SparseArray<RowCache>();
+	/**
+	 * The rows each widget read on its last query
+	 */
+	private final static SparseArray<Timeline> timelines = new SparseArray<Timeline>();
+
+	private final RefreshScheduler scheduler = new RefreshScheduler();
+	private HandlerThread thread;
+	private Handler handler;
+
+	private final Runnable refreshPending = new Runnable() {
+		@Override
+		public void run() {
+			SparseIntArray pending;
+			while ((pending = scheduler.take()) != null) {
+				final int[] widgetIds = new int[pending.size()];
+				int count = 0;
+				for (int i = 0; i < pending.size(); i++) {
+					final int widgetId = pending.keyAt(i);
+					final int reason = pending.valueAt(i);
+					if (reason == REASON_PERIODIC && advance(widgetId)) {
+						Log.d(TAG, "Advanced widget " + widgetId
+								+ " on its timeline");
+						continue;
+					}
+					Log.d(TAG, "Refreshing widget " + widgetId + ", reason "
+							+ reason);
+					widgetIds[count++] = widgetId;
+				}
+				if (count == widgetIds.length)
+					refresh(widgetIds);
+				else if (count > 0) {
+					final int[] queried = new int[count];
+					System.arraycopy(widgetIds, 0, queried, 0, count);
+					refresh(queried);
+				}
+			}
+			stopSelfResult(scheduler.getFinishedStartId());
+		}
+	};
+
+	/**
+	 * Creates an Intent that refreshes all the given widgets with a single
+	 * scan of the calendar
+	 */
+	public static Intent getBatchIntent(final Context context,
+			final int[] widgetIds, final int reason) {
+		final Intent intent = new Intent("update", null, context,
+				WidgetService.class);
+		intent.putExtra(AppWidgetManager.EXTRA_APPWIDGET_IDS, widgetIds);
+		intent.putExtra(EXTRA_REASON, reason);
+		return intent;
 	}
 
 	@Override
-	protected synchronized void onHandleIntent(final Intent intent) {
+	public void onCreate() {
+		super.onCreate();
+		thread = new HandlerThread(THEAD_NAME);
+		thread.start();
+		handler = new Handler(thread.getLooper());
+	}
+
+	@Override
+	public void onDestroy() {
+		thread.quit();
+		super.onDestroy();
+	}
+
+	@Override
+	public IBinder onBind(final Intent intent) {
+		return null;
+	}
+
+	@Override
+	public int onStartCommand(final Intent intent, final int flags,
+			final int startId) {
 		Log.d(TAG, "Handling " + intent);
+		// even without widgets the request goes through the scheduler, so
+		// that the service is not stopped during a running refresh
+		final int[] widgetIds;
+		if (intent == null)
+			widgetIds = new int[0];
+		else if (WakeupScheduler.isWakeup(intent))
+			widgetIds = WakeupScheduler.takeDue(this, intent);
+		else if (intent.hasExtra(AppWidgetManager.EXTRA_APPWIDGET_IDS))
+			widgetIds = intent
+					.getIntArrayExtra(AppWidgetManager.EXTRA_APPWIDGET_IDS);
+		else
+			widgetIds = new int[] { Integer.parseInt(intent.getData()
+					.getHost()) };
+		final int reason = intent == null ? REASON_PERIODIC : intent
+				.getIntExtra(EXTRA_REASON, REASON_PERIODIC);
 
+		if (scheduler.request(widgetIds, reason, startId))
+			handler.post(refreshPending);
+		return START_NOT_STICKY;
+	}
+
+	private void refresh(final int[] widgetIds) {
 		final AppWidgetManager appWidgetManager = AppWidgetManager
 				.getInstance(this);
-		final int widgetId = Integer.parseInt(intent.getData().getHost());
-		final AppWidgetProviderInfo appWidgetProviderInfo = appWidgetManager
-				.getAppWidgetInfo(widgetId);
-		if (null == appWidgetProviderInfo) {
-			Log.d(TAG, "Invalid widget ID!");
+
+		final DayClock.Days days = DayClock.get();
+
+		final List<Refresh> refreshes = new ArrayList<Refresh>(
+				widgetIds.length);
+		final WidgetInfo[] widgetInfos = WidgetInfoCache.get(this, widgetIds);
+		for (int i = 0; i < widgetIds.length; i++) {
+			final WidgetInfo info = widgetInfos[i];
+			if (null == info) {
+				Log.d(TAG, "Invalid widget ID " + widgetIds[i] + "!");
+				continue;
+			}
+			refreshes.add(new Refresh(info, new Style(info, info.widgetId,
+					this), days.tomorrowStart));
+		}
+		if (refreshes.isEmpty())
 			return;
+
+		// the process may have been restarted by an alarm
+		ObserverRegistry.addAllWidgets(this);
+
+		for (final Refresh refresh : refreshes)
+			if (!updatedWidgets.get(refresh.info.widgetId))
+				restoreSnapshot(appWidgetManager, refresh.info);
+
+		final WidgetInfo[] infos = new WidgetInfo[refreshes.size()];
+		int window = 0;
+		for (int i = 0; i < infos.length; i++) {
+			infos[i] = refreshes.get(i).info;
+			window = Math.max(window, getFirstSearchWindow(infos[i]));
+		}
+
+		final int generation = EventCache.getGeneration();
+		final QueryPlanner planner = new QueryPlanner(infos, days.today,
+				System.currentTimeMillis());
+		final long start = days.yesterdayStart;
+		if (planner.isEmpty)
+			for (final Refresh refresh : refreshes)
+				refresh.complete = true;
+		else {
+			final EventScanner scanner = new EventScanner(
+					getContentResolver(), planner, start, window);
+			try {
+				readEvents(refreshes, scanner, getBirthdays(refreshes, days),
+						days.today);
+			} finally {
+				scanner.close();
+			}
+			window = scanner.getWindow();
 		}
-		final WidgetInfo info = new WidgetInfo(widgetId, this);
 
-		final Style style = new Style(info, widgetId, this);
+		for (final Refresh refresh : refreshes) {
+			final int widgetId = refresh.info.widgetId;
+			searchWindows.put(widgetId, refresh.window == -1 ? window
+					: refresh.window);
 
-		Cursor cursor = null;
-		final Time now = new Time();
-		now.setToNow();
-		today = Time.getJulianDay(System.currentTimeMillis(), now.gmtoff);
-		now.second = 0;
-		now.minute = 0;
-		now.hour = 0;
-		todayStart = now.normalize(false);
-		now.monthDay++;
-		long nextUpdate = now.normalize(false);
+			timelines.put(widgetId, new Timeline(refresh.info, generation,
+					refresh.events, refresh.spares,
+					refresh.complete ? Long.MAX_VALUE : refresh.read));
+			publish(appWidgetManager, refresh);
+		}
+	}
 
-		try {
-			final long start = todayStart - 1000 * 60 * 60 * 24;
-			final long end = start + SEARCH_DURATION;
-			final String uriString = String.format(CURSOR_FORMAT, start, end);
-			cursor = getContentResolver().query(Uri.parse(uriString),
-					CURSOR_PROJECTION, null, null, CURSOR_SORT);
-
-			while (true) {
-				if (style.isFull())
-					break; // widget is full
-
-				Event event = null;
-				while (event == null && !cursor.isAfterLast())
-					event = readEvent(cursor, info);
-				if (event == null)
-					break; // no further events
+	/**
+	 * Displays the next state of the widget from the rows of its last query
+	 * 
+	 * @return false if the rows do not cover the state, so that the calendar
+	 *         has to be queried
+	 */
+	private boolean advance(final int widgetId) {
+		final Timeline timeline = timelines.get(widgetId);
+		if (timeline == null)
+			return false;
+		final WidgetInfo info = WidgetInfoCache.get(this, widgetId);
+		if (info == null)
+			return false;
+		final long now = System.currentTimeMillis();
+		final List<Event> rows = timeline.get(info, now);
+		if (rows == null)
+			return false;
 
+		final Refresh refresh = new Refresh(info, new Style(info, widgetId,
+				this), DayClock.get(now).tomorrowStart);
+		for (final Event row : rows)
+			refresh.add(row);
+		if (!refresh.style.isFull() && !timeline.isComplete()) {
+			Log.d(TAG, "Widget " + widgetId + " ran out of the rows read up to "
+					+ timeline.end);
+			return false;
+		}
+
+		publish(AppWidgetManager.getInstance(this), refresh);
+		return true;
+	}
+
+	/**
+	 * Sends the views of the refresh to its widget unless they did not
+	 * change, and schedules the next update
+	 */
+	private void publish(final AppWidgetManager appWidgetManager,
+			final Refresh refresh) {
+		final int widgetId = refresh.info.widgetId;
+		final long fingerprint = refresh.style.getFingerprint();
+		final Long lastFingerprint = fingerprints.get(widgetId);
+		if (lastFingerprint != null && lastFingerprint == fingerprint) {
+			skippedUpdates++;
+			Log.d(TAG, "Widget " + widgetId + " unchanged, " + skippedUpdates
+					+ " updates skipped");
+		} else {
+			appWidgetManager.updateAppWidget(widgetId, render(refresh.info,
+					refresh.style, getRowCache(widgetId)));
+			fingerprints.put(widgetId, fingerprint);
+			SnapshotFile.write(this, widgetId, refresh.events);
+		}
+		updatedWidgets.put(widgetId, true);
+
+		WakeupScheduler.schedule(this, widgetId, refresh.nextUpdate);
+	}
+
+	/**
+	 * Displays the events of the widget's last refresh until the calendar has
+	 * been queried
+	 */
+	private void restoreSnapshot(final AppWidgetManager appWidgetManager,
+			final WidgetInfo info) {
+		final List<Event> events = SnapshotFile.read(this, info.widgetId);
+		if (events == null)
+			return;
+
+		final long now = System.currentTimeMillis();
+		final int today = DayClock.get(now).today;
+		final Style style = new Style(info, info.widgetId, this);
+		for (final Event event : events)
+			if (event.allDay ? event.endDay >= today : event.endMillis > now)
 				style.addEvent(event);
-				if (!event.allDay && event.endMillis < nextUpdate)
-					nextUpdate = event.endMillis;
-			}
-		} finally {
-			if (cursor != null)
-				cursor.close();
+		Log.d(TAG, "Restored " + events.size() + " events of widget "
+				+ info.widgetId);
+		appWidgetManager.updateAppWidget(info.widgetId, render(info, style,
+				getRowCache(info.widgetId)));
+		fingerprints.put(info.widgetId, style.getFingerprint());
+	}
+
+	private static RowCache getRowCache(final int widgetId) {
+		RowCache rows = rowCaches.get(widgetId);
+		if (rows == null) {
+			rows = new RowCache();
+			rowCaches.put(widgetId, rows);
+		}
+		return rows;
+	}
+
+	/**
+	 * @return the row views of the agenda; the single spannable rendering if
+	 *         the rows are too large to send; or a bitmap if even that is too
+	 *         large
+	 */
+	private static RemoteViews render(final WidgetInfo info,
+			final Style style, final RowCache rows) {
+		final int widgetId = info.widgetId;
+		final RemoteViews views = style.render(rows);
+		final int size = Style.getParcelSize(views);
+		if (size <= MAX_PARCEL_SIZE) {
+			Log.d(TAG, "Widget " + widgetId + " rendered in " + size
+					+ " bytes");
+			return views;
 		}
 
-		appWidgetManager.updateAppWidget(widgetId, style.render());
+		final int width = (int) (info.width - MARGIN_HORIZONTAL * info.density);
+		final RemoteViews text = style.renderText(width);
+		final int textSize = Style.getParcelSize(text);
+		if (textSize <= MAX_PARCEL_SIZE) {
+			Log.d(TAG, "Widget " + widgetId + " rendered as text, " + size
+					+ " bytes as rows, " + textSize + " bytes as text");
+			return text;
+		}
+
+		Log.d(TAG, "Widget " + widgetId + " rendered as bitmap, " + textSize
+				+ " bytes as text");
+		final int height = (int) (info.height - MARGIN_VERTICAL * info.density);
+		return style.renderBitmap(FrameCache.draw(widgetId, style, width,
+				height));
+	}
 
-		// schedule next update
-		PendingIntent pending = PendingIntent.getService(this, 0, intent, 0);
-		AlarmManager alarmManager = (AlarmManager) getSystemService(Context.ALARM_SERVICE);
-		alarmManager.cancel(pending);
-		alarmManager.set(AlarmManager.RTC, nextUpdate + 1000, pending);
+	private static boolean isFull(final List<Refresh> refreshes) {
+		for (final Refresh refresh : refreshes)
+			if (!refresh.style.isFull())
+				return false;
+		return true;
 	}
 
-	private Event readEvent(final Cursor cursor, final WidgetInfo info) {
-		if (!cursor.moveToNext())
-			return null; // no next item
-		if (!info.calendars.get(cursor.getInt(COL_CALENDAR)).enabled)
-			return null; // Calendar is disabled
+	private static boolean isDone(final List<Refresh> refreshes) {
+		for (final Refresh refresh : refreshes)
+			if (!refresh.isDone())
+				return false;
+		return true;
+	}
 
-		final Event event = new Event();
+	private static int getFirstSearchWindow(final WidgetInfo info) {
+		final long needed = Integer.parseInt(info.lines) * LINE_DURATION;
+		int window = 0;
+		while (window < EventScanner.SEARCH_WINDOWS.length - 1
+				&& EventScanner.SEARCH_WINDOWS[window] < needed)
+			window++;
 
-		if (1 == cursor.getInt(COL_ALL_DAY))
-			event.allDay = true;
+		// start one step below the last window, so the window can shrink
+		// again when the calendar gets less busy
+		final int lastWindow = searchWindows.get(info.widgetId, 0) - 1;
+		return Math.max(window, lastWindow);
+	}
 
-		event.startDay = cursor.getInt(COL_START_DAY);
-		event.startMillis = cursor.getLong(COL_START_MILLIS);
-		event.endDay = cursor.getInt(COL_END_DAY);
-		event.endMillis = cursor.getLong(COL_END_MILLIS);
-		
-		if ((event.allDay && event.endDay < today)
-				|| (!event.allDay && event.endMillis <= System
-						.currentTimeMillis()))
-			return null; // Skip events in the past
+	/**
+	 * Adds the scanned events to the styles of all widgets that display their
+	 * calendar
+	 */
+	private void readEvents(final List<Refresh> refreshes,
+			final EventScanner scanner, final List<Event> birthdays,
+			final int today) {
+		while (!isDone(refreshes)) {
+			// once all widgets are full, the spare rows are only taken from
+			// the query window already read instead of widening the search
+			final Event event = scanner.next(!isFull(refreshes));
+			if (event == null && !scanner.isComplete())
+				break; // the timelines end with the window
+			if (event == null) {
+				// no further events
+				for (final Refresh refresh : refreshes) {
+					addBirthdays(refresh, birthdays, Long.MAX_VALUE);
+					refresh.complete = !isSpecial(refresh)
+							|| refresh.birthday == birthdays.size();
+				}
+				break;
+			}
 
-		event.title = cursor.getString(COL_TITLE);
-		if (event.title == null)
-			event.title = "";
+			Event birthday = null;
+			boolean birthdayChecked = false;
+			Event copy = null;
 
-		if (event.allDay && !info.birthdays.equals(WidgetInfo.BIRTHDAY_NORMAL))
-			for (Pattern pattern : getBirthdayPatterns()) {
-				Matcher matcher = pattern.matcher(event.title);
-				if (!matcher.find())
+			for (final Refresh refresh : refreshes) {
+				final WidgetInfo info = refresh.info;
+				addBirthdays(refresh, birthdays, event.startMillis);
+				if (refresh.isDone())
 					continue;
-				event.title = matcher.group(1);
-				event.isBirthday = true;
-				break;
+				refresh.read = event.startMillis;
+				if (!info.isEnabled(event.calendarId))
+					continue; // Calendar is disabled for this widget
+
+				Event displayed = null;
+				if (event.allDay
+						&& !info.birthdays.equals(WidgetInfo.BIRTHDAY_NORMAL)) {
+					if (!birthdayChecked) {
+						birthday = getBirthday(event);
+						birthdayChecked = true;
+					}
+					if (birthday != null) {
+						// Skip birthday events if necessary
+						if (info.birthdays.equals(WidgetInfo.BIRTHDAY_HIDE))
+							continue;
+						// Special birthdays are taken from the index
+						if (event.startDay < today + BirthdayIndex.DAYS)
+							continue;
+						displayed = birthday;
+					}
+				}
+				if (displayed == null) {
+					// the scanner reuses its event for the next row
+					if (copy == null)
+						copy = event.copy();
+					displayed = copy;
+				}
+
+				refresh.add(displayed);
+				if (refresh.window == -1 && refresh.style.isFull())
+					refresh.window = scanner.getWindow();
 			}
+		}
+	}
+
+	/**
+	 * @return a copy of the event that is marked as birthday and titled with
+	 *         the name of the person, or null if it is no birthday
+	 */
+	private Event getBirthday(final Event event) {
+		final String name = getBirthdayMatcher().match(event.title);
+		return name == null ? null : BirthdayIndex.toBirthday(event, name);
+	}
+
+	/**
+	 * @return the birthday index if any widget displays birthdays specially,
+	 *         otherwise null
+	 */
+	private List<Event> getBirthdays(final List<Refresh> refreshes,
+			final DayClock.Days days) {
+		for (final Refresh refresh : refreshes)
+			if (refresh.info.birthdays.equals(WidgetInfo.BIRTHDAY_SPECIAL))
+				return BirthdayIndex.get(this, getBirthdayMatcher(),
+						days.today, days.todayStart);
+		return null;
+	}
 
-		// Skip birthday events if necessary
-		if (event.isBirthday && info.birthdays.equals(WidgetInfo.BIRTHDAY_HIDE))
-			return null;
+	/**
+	 * Adds the birthdays of the index beginning up to the given time to a
+	 * widget that displays birthdays specially
+	 */
+	private static void addBirthdays(final Refresh refresh,
+			final List<Event> birthdays, final long until) {
+		if (birthdays == null || !isSpecial(refresh))
+			return;
+		while (refresh.birthday < birthdays.size() && !refresh.isDone()) {
+			final Event birthday = birthdays.get(refresh.birthday);
+			if (birthday.startMillis > until)
+				return;
+			refresh.birthday++;
+			if (!refresh.info.isEnabled(birthday.calendarId))
+				continue;
+			refresh.add(birthday);
+		}
+	}
 
-		event.location = cursor.getString(COL_LOCATION);
-		if (event.location != null
-				&& IS_EMPTY_PATTERN.matcher(event.location).find())
-			event.location = null;
+	/**
+	 * @return true if the widget displays the birthdays of the index
+	 */
+	private static boolean isSpecial(final Refresh refresh) {
+		return refresh.info.birthdays.equals(WidgetInfo.BIRTHDAY_SPECIAL);
+	}
 
-		event.color = cursor.getInt(COL_COLOR);
-		event.hasAlarm = cursor.getInt(COL_HAS_ALARM) == 1;
-		return event;
+	/**
+	 * @return a matcher for the birthday patterns of the current language,
+	 *         followed by those of all other languages
+	 */
+	private synchronized BirthdayMatcher getBirthdayMatcher() {
+		if (birthdayMatcher == null)
+			birthdayMatcher = new BirthdayMatcher(getResources()
+					.getStringArray(R.array.birthday_patterns),
+					getAllBirthdayPatterns(getResources()));
+		return birthdayMatcher;
 	}
 
-	private synchronized Pattern[] getBirthdayPatterns() {
-		if (birthdayPatterns == null) {
-			String[] strings = getResources().getStringArray(
-					R.array.birthday_patterns);
-			birthdayPatterns = new Pattern[strings.length];
-			for (int i = 0; i < strings.length; i++) {
-				birthdayPatterns[i] = Pattern.compile(strings[i]);
+	/**
+	 * Reads the birthday patterns of every language there are resources for,
+	 * so that birthdays are recognized whatever language their calendar was
+	 * created in.
+	 * 
+	 * @return the patterns of all translations, without duplicates
+	 */
+	private static String[] getAllBirthdayPatterns(final Resources res) {
+		final AssetManager assets = res.getAssets();
+		final DisplayMetrics metrics = res.getDisplayMetrics();
+		final Configuration config = new Configuration(res.getConfiguration());
+		final Set<String> languages = new HashSet<String>();
+		final Set<String> patterns = new LinkedHashSet<String>();
+		try {
+			for (final String locale : assets.getLocales()) {
+				// like "de" or "en_GB"; the patterns depend on the language
+				final String language = locale.split("[_-]")[0];
+				if (language.length() == 0 || !languages.add(language))
+					continue;
+				config.locale = new Locale(language);
+				final Resources translation = new Resources(assets, metrics,
+						config);
+				for (final String pattern : translation
+						.getStringArray(R.array.birthday_patterns))
+					patterns.add(pattern);
 			}
+		} finally {
+			// the translations changed the configuration of the shared assets
+			res.updateConfiguration(res.getConfiguration(), metrics);
 		}
-		return birthdayPatterns;
+		Log.d(TAG, "Read " + patterns.size() + " birthday patterns of "
+				+ languages.size() + " languages");
+		return patterns.toArray(new String[patterns.size()]);
 	}
 }
@@ -24,6 +24,9 @@ package de.antonwolf.agendawidget.widgets;
 
 import java.util.Arrays;
 
+import de.antonwolf.agendawidget.DayClock;
+import de.antonwolf.agendawidget.EventCache;
+import de.antonwolf.agendawidget.ObserverRegistry;
 import de.antonwolf.agendawidget.WidgetInfo;
 import de.antonwolf.agendawidget.WidgetService;
 
@@ -32,9 +35,6 @@ import android.appwidget.AppWidgetProvider;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.database.ContentObserver;
-import android.net.Uri;
-import android.os.Handler;
 import android.util.Log;
 
 /**
@@ -43,12 +43,23 @@ import android.util.Log;
  *         Base class for each widget
  */
 abstract class WidgetBase extends AppWidgetProvider {
-	private ContentObserver calendarInstancesObserver;
 	static final String TAG = "AgendaWidget";
 
 	@Override
 	public void onReceive(Context context, Intent intent) {
-		if (!intent.hasExtra(AppWidgetManager.EXTRA_APPWIDGET_IDS)
+		final String action = intent.getAction();
+		if (Intent.ACTION_TIMEZONE_CHANGED.equals(action)
+				|| Intent.ACTION_TIME_CHANGED.equals(action)
+				|| Intent.ACTION_DATE_CHANGED.equals(action)) {
+			DayClock.invalidate();
+			// the provider computed the days of the cached rows in the old
+			// time zone, so they must neither be cached nor advanced
+			EventCache.invalidate();
+			ComponentName name = new ComponentName(context, this.getClass());
+			AppWidgetManager m = AppWidgetManager.getInstance(context);
+			update(context, m.getAppWidgetIds(name),
+					WidgetService.REASON_CLOCK);
+		} else if (!intent.hasExtra(AppWidgetManager.EXTRA_APPWIDGET_IDS)
 				&& intent.getAction() == AppWidgetManager.ACTION_APPWIDGET_UPDATE) {
 			ComponentName name = new ComponentName(context, this.getClass());
 			AppWidgetManager m = AppWidgetManager.getInstance(context);
@@ -58,20 +69,9 @@ abstract class WidgetBase extends AppWidgetProvider {
 			super.onReceive(context, intent);
 	}
 
-	@Override
-	public void onEnabled(Context context) {
-		Log.d(TAG, "WidgetBase.onEnabled()");
-		registerContentObserver(context);
-	}
-
-	@Override
-	public void onDisabled(Context context) {
-		Log.d(TAG, "WidgetBase.onDisabled()");
-		unregisterContentObserver(context);
-	}
-	
 	@Override
 	public void onDeleted(Context context, int[] appWidgetIds) {
+		ObserverRegistry.removeWidgets(appWidgetIds);
 		for (final int widgetId : appWidgetIds)
 			WidgetInfo.delete(context, widgetId);
 	}
@@ -79,44 +79,14 @@ abstract class WidgetBase extends AppWidgetProvider {
 	@Override
 	public void onUpdate(Context context, AppWidgetManager manager, int[] ids) {
 		Log.d(TAG, "WidgetBase.onUpdate(" + Arrays.toString(ids) + ")");
-
-		unregisterContentObserver(context);
-		registerContentObserver(context);
-
-		for (int appWidgetId : ids) {
-			Intent intent = new Intent("update", Uri.parse("widget://"
-					+ appWidgetId), context, WidgetService.class);
-			Log.d(TAG, "Sending " + intent);
-			context.startService(intent);
-		}
-	}
-
-	private void unregisterContentObserver(Context context) {
-		Log.d(TAG, "WidgetBase.unregisterContentObserver()");
-		if (calendarInstancesObserver != null)
-			context.getContentResolver().unregisterContentObserver(
-					calendarInstancesObserver);
+		update(context, ids, WidgetService.REASON_PERIODIC);
 	}
 
-	private void registerContentObserver(final Context context) {
-		if (calendarInstancesObserver == null) {
-			final ComponentName name = new ComponentName(context,
-					this.getClass());
+	private void update(Context context, int[] ids, int reason) {
+		ObserverRegistry.addWidgets(context, ids);
 
-			calendarInstancesObserver = new ContentObserver(new Handler()) {
-				@Override
-				public void onChange(boolean selfChange) {
-					Log.d(TAG, "ContentObserver.onChange()");
-					AppWidgetManager m = AppWidgetManager.getInstance(context);
-					int[] ids = m.getAppWidgetIds(name);
-					onUpdate(context, m, ids);
-				}
-			};
-		}
-		Log.d(TAG, "WidgetBase.registerContentObserver()");
-		String uriString = "content://com.android.calendar";
-		Uri instancesUri = Uri.parse(uriString);
-		context.getContentResolver().registerContentObserver(instancesUri,
-				true, calendarInstancesObserver);
+		Intent intent = WidgetService.getBatchIntent(context, ids, reason);
+		Log.d(TAG, "Sending " + intent);
+		context.startService(intent);
 	}
 }
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2011 by Anton Wolf
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.antonwolf.agendawidget;
+
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that the single scan of BirthdayMatcher finds the same names as
+ * trying the regular expressions one after the other with Matcher.find().
+ * 
+ * @author Anton Wolf
+ */
+public class BirthdayMatcherTest extends TestCase {
+	private final static String[] PATTERNS = { "(.+)'s Birthday",
+			"(.+)'s birthday", "(.+)s Geburtstag", "(.+)\\. Geburtstag",
+			"(.+) hat Geburtstag", "Geburtstag von (.+)",
+			"(.+)s fødselsdag", "(.+) har fødselsdag" };
+	/**
+	 * Not of the form "(.+)literal" or "literal(.+)"
+	 */
+	private final static String[] REGEX_PATTERNS = { "^Bday: (\\w+)$",
+			"(.+)'s Birthday" };
+	private final static String[] FRAGMENTS = { "Anton", "Anna", "'s",
+			"s", " ", ".", "Birthday", "birthday", "Geburtstag", " hat",
+			" von", "von ", "fødselsdag", " har", "Bday: ", "\n", " ",
+			"ss", "'", "Geburtstag von " };
+
+	private BirthdayMatcher matcher;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		matcher = new BirthdayMatcher(PATTERNS, REGEX_PATTERNS);
+	}
+
+	public void testSuffixPattern() {
+		assertEquals("Anton", matcher.match("Anton's Birthday"));
+		assertEquals("Anna", matcher.match("Annas Geburtstag"));
+		assertEquals("Anna 30", matcher.match("Anna 30. Geburtstag"));
+	}
+
+	public void testPrefixPattern() {
+		assertEquals("Anton", matcher.match("Geburtstag von Anton"));
+	}
+
+	public void testRegexPattern() {
+		assertEquals("Anton", matcher.match("Bday: Anton"));
+		assertNull(matcher.match("Bday: Anton Wolf"));
+	}
+
+	public void testNoBirthday() {
+		assertNull(matcher.match("Meeting"));
+		assertNull(matcher.match("'s Birthday"));
+		assertNull(matcher.match(""));
+	}
+
+	public void testPrecedence() {
+		// both "(.+)'s Birthday" and "(.+)s Geburtstag" match
+		final String title = "Anton's Birthdays Geburtstag";
+		assertEquals(find(title), matcher.match(title));
+	}
+
+	public void testMemoizedResult() {
+		assertEquals("Anton", matcher.match("Anton's Birthday"));
+		assertEquals("Anton", matcher.match("Anton's Birthday"));
+		assertNull(matcher.match("Meeting"));
+		assertNull(matcher.match("Meeting"));
+	}
+
+	public void testEquivalentToFind() {
+		final Random random = new Random(1);
+		for (int i = 0; i < 20000; i++) {
+			final StringBuilder builder = new StringBuilder();
+			final int length = random.nextInt(6);
+			for (int j = 0; j < length; j++)
+				builder.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+			final String title = builder.toString();
+			assertEquals(title, find(title), matcher.match(title));
+		}
+	}
+
+	/**
+	 * @return the group of the first pattern that is found in the title
+	 */
+	private static String find(final String title) {
+		for (final String[] patterns : new String[][] { PATTERNS,
+				REGEX_PATTERNS })
+			for (final String pattern : patterns) {
+				final Matcher matcher = Pattern.compile(pattern).matcher(title);
+				if (matcher.find())
+					return matcher.group(1);
+			}
+		return null;
+	}
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2011 by Anton Wolf
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.antonwolf.agendawidget;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.Random;
+import java.util.TimeZone;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks the civil date arithmetic and day boundaries of DayClock against
+ * java.util.Calendar.
+ * 
+ * @author Anton Wolf
+ */
+public class DayClockTest extends TestCase {
+	private final static long DAY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+	private final static int EPOCH_JULIAN_DAY = 2440588;
+	private final static String[] TIME_ZONES = { "UTC", "Europe/Berlin",
+			"America/Sao_Paulo", "America/Santiago", "Australia/Lord_Howe",
+			"Asia/Tehran", "Pacific/Apia" };
+	private final static int TIMES = 1000;
+
+	private TimeZone timeZone;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		timeZone = TimeZone.getDefault();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		TimeZone.setDefault(timeZone);
+		DayClock.invalidate();
+		super.tearDown();
+	}
+
+	public void testCivilDates() {
+		final GregorianCalendar calendar = newUtcCalendar();
+		// 1 January 1600 to 31 December 2400
+		calendar.set(1600, Calendar.JANUARY, 1);
+		final int first = getJulianDay(calendar);
+		calendar.set(2401, Calendar.JANUARY, 1);
+		final int last = getJulianDay(calendar);
+		for (int julianDay = first; julianDay < last; julianDay++) {
+			calendar.setTimeInMillis((julianDay - EPOCH_JULIAN_DAY)
+					* DAY_IN_MILLIS);
+			final int year = calendar.get(Calendar.YEAR);
+			assertEquals("Julian day " + julianDay, year, DayClock
+					.getYear(julianDay));
+			if (calendar.get(Calendar.DAY_OF_YEAR) == 1)
+				assertEquals("Year " + year, julianDay, DayClock
+						.getNewYear(year));
+		}
+	}
+
+	public void testNewYearBeforeYearZero() {
+		final GregorianCalendar calendar = newUtcCalendar();
+		for (int year = -800; year < 0; year++) {
+			calendar.clear();
+			// the calendar counts years before 1 as 1, 2, ... BC
+			calendar.set(Calendar.ERA, GregorianCalendar.BC);
+			calendar.set(1 - year, Calendar.JANUARY, 1);
+			final int julianDay = getJulianDay(calendar);
+			assertEquals("Year " + year, julianDay, DayClock.getNewYear(year));
+			assertEquals("Year " + year, year, DayClock.getYear(julianDay));
+			assertEquals("Year " + year, year - 1, DayClock
+					.getYear(julianDay - 1));
+		}
+	}
+
+	public void testBoundaries() {
+		final Random random = new Random(1);
+		for (final String id : TIME_ZONES) {
+			final TimeZone zone = TimeZone.getTimeZone(id);
+			TimeZone.setDefault(zone);
+			DayClock.invalidate();
+			for (int i = 0; i < TIMES; i++) {
+				// any time between 2008 and 2036
+				final long now = 1200000000000L
+						+ (long) (random.nextDouble() * 900000000000L);
+				final DayClock.Days days = DayClock.get(now);
+				final Calendar calendar = Calendar.getInstance(zone);
+				calendar.setTimeInMillis(now);
+				final int year = calendar.get(Calendar.YEAR);
+				final int month = calendar.get(Calendar.MONTH);
+				final int date = calendar.get(Calendar.DATE);
+				final String message = id + " " + now;
+
+				assertEquals(message, getStart(zone, year, month, date - 1),
+						days.yesterdayStart);
+				assertEquals(message, getStart(zone, year, month, date),
+						days.todayStart);
+				assertEquals(message, getStart(zone, year, month, date + 1),
+						days.tomorrowStart);
+				assertEquals(message, getStart(zone, year, month, date + 2),
+						days.dayAfterTomorrowStart);
+				assertEquals(message, getStart(zone, year, month, date + 8),
+						days.oneWeekFromNow);
+				assertEquals(message, getStart(zone, year, Calendar.JANUARY,
+						1), days.yearStart);
+				assertEquals(message, getStart(zone, year + 1,
+						Calendar.JANUARY, 1), days.yearEnd);
+
+				// offsets outside the table come from the time zone
+				final long time = now
+						+ (long) ((random.nextDouble() - 0.5) * 4e10);
+				assertEquals(message, zone.getOffset(time), days
+						.getOffset(time));
+			}
+		}
+	}
+
+	public void testJulianDays() {
+		final Random random = new Random(1);
+		for (final String id : TIME_ZONES) {
+			final TimeZone zone = TimeZone.getTimeZone(id);
+			TimeZone.setDefault(zone);
+			DayClock.invalidate();
+			final long now = 1300000000000L;
+			final DayClock.Days days = DayClock.get(now);
+			final Calendar calendar = Calendar.getInstance(zone);
+			final GregorianCalendar utc = newUtcCalendar();
+			for (int i = 0; i < TIMES; i++) {
+				final long time = now
+						+ (long) ((random.nextDouble() - 0.5) * 1e11);
+				calendar.setTimeInMillis(time);
+				utc.set(calendar.get(Calendar.YEAR), calendar
+						.get(Calendar.MONTH), calendar.get(Calendar.DATE));
+				final int julianDay = getJulianDay(utc);
+				assertEquals(id + " " + time, julianDay, days
+						.getJulianDay(time));
+				assertEquals(id + " " + time, julianDay, days
+						.getJulianDay(days.getDayStart(julianDay)));
+				// Samoa skipped 30 December 2011
+				assertTrue(id + " " + time, days.getJulianDay(days
+						.getDayStart(julianDay) - 1) < julianDay);
+			}
+		}
+	}
+
+	public void testSameDayCached() {
+		final DayClock.Days days = DayClock.get(1300000000000L);
+		assertSame(days, DayClock.get(days.todayStart));
+		assertSame(days, DayClock.get(days.tomorrowStart - 1));
+		assertFalse(days == DayClock.get(days.tomorrowStart));
+	}
+
+	/**
+	 * @return a calendar of UTC which is Gregorian for all dates
+	 */
+	private static GregorianCalendar newUtcCalendar() {
+		final GregorianCalendar calendar = new GregorianCalendar(TimeZone
+				.getTimeZone("UTC"));
+		calendar.setGregorianChange(new Date(Long.MIN_VALUE));
+		calendar.clear();
+		return calendar;
+	}
+
+	private static int getJulianDay(final Calendar utc) {
+		return (int) Math.floor(utc.getTimeInMillis() / (double) DAY_IN_MILLIS)
+				+ EPOCH_JULIAN_DAY;
+	}
+
+	private static long getStart(final TimeZone zone, final int year,
+			final int month, final int date) {
+		final Calendar calendar = Calendar.getInstance(zone);
+		calendar.clear();
+		calendar.set(year, month, date);
+		return calendar.getTimeInMillis();
+	}
+}
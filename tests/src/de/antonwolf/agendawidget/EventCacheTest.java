@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2011 by Anton Wolf
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.antonwolf.agendawidget;
+
+import junit.framework.TestCase;
+import android.test.mock.MockContentResolver;
+import android.text.format.DateUtils;
+
+/**
+ * Checks that scans served from the EventCache do not query the provider,
+ * and that its hit and miss counters say so.
+ * 
+ * @author Anton Wolf
+ */
+public class EventCacheTest extends TestCase {
+	private final static long HOUR = DateUtils.HOUR_IN_MILLIS;
+	/**
+	 * Some midnight, the start of the scans
+	 */
+	private final static long START = 1300060800000L;
+
+	private InstancesProvider provider;
+	private MockContentResolver resolver;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		provider = new InstancesProvider();
+		resolver = new MockContentResolver();
+		resolver.addProvider(InstancesProvider.AUTHORITY, provider);
+		for (int i = 0; i < 10; i++) {
+			final long begin = START + i * 6 * HOUR;
+			provider.insert(1 + i % 2, "Event " + i, begin, begin + HOUR);
+		}
+		EventCache.invalidate();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		EventCache.invalidate();
+		provider.close();
+		super.tearDown();
+	}
+
+	public void testSecondScanIsHit() {
+		final int hits = EventCache.getHits();
+		final int misses = EventCache.getMisses();
+		assertEquals(10, scan(new int[] { 1, 2 }));
+		final int queries = provider.getQueryCount();
+		assertEquals(misses + 1, EventCache.getMisses());
+
+		assertEquals(10, scan(new int[] { 1, 2 }));
+		assertEquals(queries, provider.getQueryCount());
+		assertEquals(hits + 1, EventCache.getHits());
+		assertEquals(misses + 1, EventCache.getMisses());
+	}
+
+	public void testFewerCalendarsServedFromCache() {
+		scan(new int[] { 1, 2 });
+		final int queries = provider.getQueryCount();
+		final int hits = EventCache.getHits();
+		assertEquals(5, scan(new int[] { 2 }));
+		assertEquals(queries, provider.getQueryCount());
+		assertEquals(hits + 1, EventCache.getHits());
+	}
+
+	public void testMoreCalendarsQueried() {
+		scan(new int[] { 1 });
+		final int misses = EventCache.getMisses();
+		assertEquals(10, scan(new int[] { 1, 2 }));
+		assertEquals(misses + 1, EventCache.getMisses());
+	}
+
+	public void testInvalidateQueriesAgain() {
+		scan(new int[] { 1, 2 });
+		EventCache.invalidate();
+		final int queries = provider.getQueryCount();
+		final int misses = EventCache.getMisses();
+		assertEquals(10, scan(new int[] { 1, 2 }));
+		assertTrue(provider.getQueryCount() > queries);
+		assertEquals(misses + 1, EventCache.getMisses());
+	}
+
+	/**
+	 * @return the number of events a complete scan of the calendars returned
+	 */
+	private int scan(final int[] calendarIds) {
+		final QueryPlanner planner = new QueryPlanner(calendarIds, false,
+				DayClock.get(START).today, START);
+		final EventScanner scanner = new EventScanner(resolver, planner,
+				START, 0);
+		int count = 0;
+		try {
+			while (scanner.next(true) != null)
+				count++;
+		} finally {
+			scanner.close();
+		}
+		return count;
+	}
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2011 by Anton Wolf
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.antonwolf.agendawidget;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import android.test.mock.MockContentResolver;
+import android.text.format.DateUtils;
+
+/**
+ * Checks that scanning the query windows one after another returns every
+ * instance exactly once.
+ * 
+ * @author Anton Wolf
+ */
+public class EventScannerTest extends TestCase {
+	private final static int CALENDAR_ID = 1;
+	private final static long HOUR = DateUtils.HOUR_IN_MILLIS;
+	/**
+	 * Some midnight, the start of the scan
+	 */
+	private final static long START = 1300060800000L;
+
+	private InstancesProvider provider;
+	private MockContentResolver resolver;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		provider = new InstancesProvider();
+		resolver = new MockContentResolver();
+		resolver.addProvider(InstancesProvider.AUTHORITY, provider);
+		EventCache.invalidate();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		EventCache.invalidate();
+		provider.close();
+		super.tearDown();
+	}
+
+	public void testEventOnWindowBoundary() {
+		// e.g. an event at midnight the day after tomorrow ends the first
+		// window and begins the second one
+		final int windows = EventScanner.SEARCH_WINDOWS.length;
+		for (int window = 0; window < windows; window++) {
+			final long begin = START + EventScanner.SEARCH_WINDOWS[window];
+			provider.insert(CALENDAR_ID, "Boundary " + window, begin, begin
+					+ HOUR);
+			provider.insert(CALENDAR_ID, "Before " + window, begin - 1, begin
+					+ HOUR);
+			// the last window ends the search
+			if (window < windows - 1)
+				provider.insert(CALENDAR_ID, "After " + window, begin + 1,
+						begin + HOUR);
+		}
+		provider.insert(CALENDAR_ID, "Ongoing", START - HOUR, START + HOUR);
+
+		final Map<String, Integer> counts = scan(0);
+		assertEquals(windows * 3, counts.size());
+		for (final Map.Entry<String, Integer> count : counts.entrySet())
+			assertEquals(count.getKey(), 1, (int) count.getValue());
+	}
+
+	public void testEventOnBoundaryOfLaterFirstWindow() {
+		final long begin = START + EventScanner.SEARCH_WINDOWS[2];
+		provider.insert(CALENDAR_ID, "Boundary", begin, begin + HOUR);
+		final Map<String, Integer> counts = scan(2);
+		assertEquals(1, (int) counts.get("Boundary"));
+	}
+
+	public void testEqualKeysOnSeveralPages() {
+		// more rows than fit on one page of InstancesPager, which differ
+		// only by _id or title
+		for (int i = 0; i < 40; i++)
+			provider.insert(CALENDAR_ID, "Event " + (i % 3), START + HOUR,
+					START + 2 * HOUR);
+		final Map<String, Integer> counts = scan(0);
+		assertEquals(14, (int) counts.get("Event 0"));
+		assertEquals(13, (int) counts.get("Event 1"));
+		assertEquals(13, (int) counts.get("Event 2"));
+	}
+
+	public void testStopAtWindowEnd() {
+		provider.insert(CALENDAR_ID, "Today", START + HOUR, START + 2 * HOUR);
+		final long later = START + EventScanner.SEARCH_WINDOWS[0] + HOUR;
+		provider.insert(CALENDAR_ID, "Later", later, later + HOUR);
+
+		final EventScanner scanner = new EventScanner(resolver,
+				newPlanner(), START, 0);
+		try {
+			assertEquals("Today", scanner.next(false).title);
+			final int queries = provider.getQueryCount();
+			assertNull(scanner.next(false));
+			assertFalse(scanner.isComplete());
+			assertEquals(0, scanner.getWindow());
+			assertEquals(queries, provider.getQueryCount());
+
+			// widening continues behind the rows already returned
+			assertEquals("Later", scanner.next(true).title);
+			assertNull(scanner.next(true));
+			assertTrue(scanner.isComplete());
+		} finally {
+			scanner.close();
+		}
+	}
+
+	private static QueryPlanner newPlanner() {
+		return new QueryPlanner(new int[] { CALENDAR_ID }, false, DayClock
+				.get(START).today, START);
+	}
+
+	/**
+	 * @return how often each title was returned by a complete scan
+	 */
+	private Map<String, Integer> scan(final int firstWindow) {
+		final EventScanner scanner = new EventScanner(resolver,
+				newPlanner(), START, firstWindow);
+		final Map<String, Integer> counts = new HashMap<String, Integer>();
+		try {
+			Event event;
+			while ((event = scanner.next(true)) != null) {
+				final Integer count = counts.get(event.title);
+				counts.put(event.title, count == null ? 1 : count + 1);
+			}
+		} finally {
+			scanner.close();
+		}
+		return counts;
+	}
+}
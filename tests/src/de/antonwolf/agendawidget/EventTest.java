@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2011 by Anton Wolf
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.antonwolf.agendawidget;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that a HashSet of events drops the same birthdays as the linear
+ * List.contains() search it replaced in Style.
+ * 
+ * @author Anton Wolf
+ */
+public class EventTest extends TestCase {
+	private final static String[] NAMES = { "Anton", "Anna", "Aa", "BB" };
+
+	public void testSameBirthdayOfAnotherCalendar() {
+		final Event a = birthday(2455000, "Anton");
+		final Event b = birthday(2455000, "Anton");
+		b.calendarId = 2;
+		assertEquals(a, b);
+		assertEquals(a.hashCode(), b.hashCode());
+	}
+
+	public void testOtherEventsOnlyEqualThemselves() {
+		final Event a = birthday(2455000, "Anton");
+		final Event b = birthday(2455000, "Anton");
+		b.isBirthday = false;
+		assertFalse(a.equals(b));
+		assertFalse(b.equals(a));
+		assertTrue(b.equals(b));
+	}
+
+	public void testSetEquivalentToList() {
+		final Random random = new Random(1);
+		final List<Event> list = new ArrayList<Event>();
+		final Set<Event> set = new HashSet<Event>();
+		for (int i = 0; i < 2000; i++) {
+			// "Aa" and "BB" have the same hash code
+			final Event event = birthday(2455000 + random.nextInt(20),
+					NAMES[random.nextInt(NAMES.length)]);
+			event.isBirthday = random.nextInt(10) > 0;
+			final boolean added = !list.contains(event);
+			if (added)
+				list.add(event);
+			assertEquals(added, set.add(event));
+		}
+		assertEquals(list.size(), set.size());
+	}
+
+	private static Event birthday(final int day, final String name) {
+		final Event event = new Event();
+		event.allDay = true;
+		event.isBirthday = true;
+		event.startDay = day;
+		event.endDay = day;
+		event.title = name;
+		return event;
+	}
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2011 by Anton Wolf
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.antonwolf.agendawidget;
+
+import java.util.List;
+import java.util.TimeZone;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.test.mock.MockContentProvider;
+import android.text.format.DateUtils;
+
+/**
+ * Answers the instances query of the calendar provider from an in-memory
+ * database. Like the provider, it returns the instances overlapping the
+ * range of the URI including both of its ends.
+ * 
+ * @author Anton Wolf
+ */
+class InstancesProvider extends MockContentProvider {
+	final static String AUTHORITY = "com.android.calendar";
+	private final static int EPOCH_JULIAN_DAY = 2440588;
+
+	private final SQLiteDatabase database = SQLiteDatabase.create(null);
+	private int queries = 0;
+
+	InstancesProvider() {
+		database.execSQL("CREATE TABLE Instances (_id INTEGER PRIMARY KEY, "
+				+ "title TEXT, allDay INTEGER, startDay INTEGER, "
+				+ "endDay INTEGER, begin INTEGER, end INTEGER, "
+				+ "calendar_id INTEGER, eventLocation TEXT, "
+				+ "hasAlarm INTEGER, color INTEGER)");
+	}
+
+	/**
+	 * Adds a timed event of the default time zone
+	 */
+	void insert(final int calendarId, final String title, final long begin,
+			final long end) {
+		database.execSQL("INSERT INTO Instances (title, allDay, startDay, "
+				+ "endDay, begin, end, calendar_id, eventLocation, "
+				+ "hasAlarm, color) VALUES ('" + title.replace("'", "''")
+				+ "', 0, " + getJulianDay(begin) + ", " + getJulianDay(end)
+				+ ", " + begin + ", " + end + ", " + calendarId
+				+ ", NULL, 0, 0)");
+	}
+
+	/**
+	 * @return the number of queries answered so far
+	 */
+	int getQueryCount() {
+		return queries;
+	}
+
+	void close() {
+		database.close();
+	}
+
+	@Override
+	public Cursor query(final Uri uri, final String[] projection,
+			final String selection, final String[] selectionArgs,
+			final String sortOrder) {
+		queries++;
+		// instances/when/<begin>/<end>
+		final List<String> segments = uri.getPathSegments();
+		final long begin = Long.parseLong(segments.get(2));
+		final long end = Long.parseLong(segments.get(3));
+
+		final StringBuilder sql = new StringBuilder("SELECT ");
+		for (int i = 0; i < projection.length; i++) {
+			if (i > 0)
+				sql.append(", ");
+			sql.append(projection[i]);
+		}
+		sql.append(" FROM Instances WHERE begin <= ").append(end);
+		sql.append(" AND end >= ").append(begin);
+		if (selection != null)
+			sql.append(" AND (").append(selection).append(')');
+		if (sortOrder != null)
+			sql.append(" ORDER BY ").append(sortOrder);
+		return database.rawQuery(sql.toString(), selectionArgs);
+	}
+
+	private static int getJulianDay(final long time) {
+		final long local = time + TimeZone.getDefault().getOffset(time);
+		return (int) Math.floor(local / (double) DateUtils.DAY_IN_MILLIS)
+				+ EPOCH_JULIAN_DAY;
+	}
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2011 by Anton Wolf
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.antonwolf.agendawidget;
+
+import android.test.AndroidTestCase;
+
+/**
+ * Checks that all widget sizes share a single calendar observer, which is
+ * registered while any widget is alive.
+ * 
+ * @author Anton Wolf
+ */
+public class ObserverRegistryTest extends AndroidTestCase {
+	/**
+	 * Far from the IDs of real widgets, which may be alive in this process
+	 */
+	private final static int[] IDS = { 1000001, 1000002, 1000003 };
+
+	private int widgets;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		ObserverRegistry.removeWidgets(IDS);
+		widgets = ObserverRegistry.getWidgetCount();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		ObserverRegistry.removeWidgets(IDS);
+		super.tearDown();
+	}
+
+	public void testOneRegistrationForAllWidgets() {
+		ObserverRegistry.addWidgets(getContext(), new int[] { IDS[0] });
+		ObserverRegistry.addWidgets(getContext(), new int[] { IDS[1], IDS[2] });
+		assertEquals(1, ObserverRegistry.getRegistrationCount());
+		assertTrue(ObserverRegistry.isRegistered());
+		assertEquals(widgets + 3, ObserverRegistry.getWidgetCount());
+
+		ObserverRegistry.removeWidgets(new int[] { IDS[0], IDS[1] });
+		assertEquals(1, ObserverRegistry.getRegistrationCount());
+		assertEquals(widgets + 1, ObserverRegistry.getWidgetCount());
+	}
+
+	public void testUnregisteredWithLastWidget() {
+		ObserverRegistry.addWidgets(getContext(), IDS);
+		ObserverRegistry.removeWidgets(IDS);
+		assertEquals(widgets, ObserverRegistry.getWidgetCount());
+		assertEquals(widgets > 0 ? 1 : 0, ObserverRegistry
+				.getRegistrationCount());
+		assertEquals(widgets > 0, ObserverRegistry.isRegistered());
+	}
+
+	public void testWidgetAddedTwice() {
+		ObserverRegistry.addWidgets(getContext(), new int[] { IDS[0] });
+		ObserverRegistry.addWidgets(getContext(), new int[] { IDS[0] });
+		assertEquals(widgets + 1, ObserverRegistry.getWidgetCount());
+		assertEquals(1, ObserverRegistry.getRegistrationCount());
+	}
+
+	public void testRemoveUnknownWidget() {
+		ObserverRegistry.removeWidgets(new int[] { IDS[0] });
+		assertEquals(widgets, ObserverRegistry.getWidgetCount());
+		assertTrue(ObserverRegistry.getRegistrationCount() <= 1);
+	}
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2011 by Anton Wolf
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.antonwolf.agendawidget;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import android.os.Debug;
+
+/**
+ * Checks that StringTable interns characters as it interns the equal
+ * strings, and that looking up known characters does not allocate.
+ * 
+ * @author Anton Wolf
+ */
+public class StringTableTest extends TestCase {
+	private final static int STRINGS = 5000;
+
+	public void testCharsAndStringsShareIndices() {
+		final StringTable table = new StringTable();
+		final int index = table.intern("Anton");
+		final char[] data = "Anton's Birthday".toCharArray();
+		assertEquals(index, table.intern(data, 5));
+		assertEquals(1, table.size());
+		assertEquals(index + 1, table.intern(data, data.length));
+		assertEquals("Anton's Birthday", table.get(index + 1));
+	}
+
+	public void testEqualHashCodes() {
+		final StringTable table = new StringTable();
+		assertEquals("Aa".hashCode(), "BB".hashCode());
+		assertEquals(0, table.intern("Aa"));
+		assertEquals(1, table.intern("BB".toCharArray(), 2));
+		assertEquals(0, table.intern("Aa".toCharArray(), 2));
+		assertEquals(1, table.intern("BB"));
+	}
+
+	public void testEquivalentToList() {
+		final Random random = new Random(1);
+		final StringTable table = new StringTable();
+		final List<String> list = new ArrayList<String>();
+		final char[] data = new char[16];
+		for (int i = 0; i < STRINGS; i++) {
+			final int length = random.nextInt(data.length);
+			for (int c = 0; c < length; c++)
+				data[c] = (char) ('a' + random.nextInt(3));
+			final String string = new String(data, 0, length);
+			int expected = list.indexOf(string);
+			if (expected == -1) {
+				expected = list.size();
+				list.add(string);
+			}
+			final int index = random.nextBoolean() ? table.intern(data,
+					length) : table.intern(string);
+			assertEquals(expected, index);
+			assertEquals(string, table.get(index));
+		}
+		assertEquals(list.size(), table.size());
+	}
+
+	public void testKnownCharsDoNotAllocate() {
+		final StringTable table = new StringTable();
+		final char[][] data = new char[100][];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = ("Event " + i).toCharArray();
+			table.intern(data[i], data[i].length);
+		}
+		Debug.startAllocCounting();
+		Debug.resetThreadAllocCount();
+		for (int i = 0; i < data.length; i++)
+			table.intern(data[i], data[i].length);
+		final int allocations = Debug.getThreadAllocCount();
+		Debug.stopAllocCounting();
+		assertEquals(0, allocations);
+	}
+
+	public void testGetOutOfRange() {
+		final StringTable table = new StringTable();
+		table.intern("Anton");
+		try {
+			table.get(1);
+			fail();
+		} catch (IndexOutOfBoundsException e) {
+			// expected
+		}
+	}
+}
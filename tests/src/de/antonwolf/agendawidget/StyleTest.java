@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2011 by Anton Wolf
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.antonwolf.agendawidget;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+/**
+ * Checks how Style collapses birthdays, and benchmarks it for growing
+ * numbers of birthday contacts.
+ * 
+ * @author Anton Wolf
+ */
+public class StyleTest extends AndroidTestCase {
+	private final static String TAG = "AgendaWidget";
+	private final static int[] CONTACTS = { 100, 200, 400, 800, 1600, 3200 };
+	/**
+	 * Each contact's birthday is found in this many calendars
+	 */
+	private final static int COPIES = 2;
+	private final static int ROUNDS = 5;
+	/**
+	 * The number of events formatted per round, about a page of a large
+	 * widget
+	 */
+	private final static int EVENTS = 25;
+	private final static int FORMAT_ROUNDS = 100;
+
+	@Override
+	protected void tearDown() throws Exception {
+		TestWidget.delete(getContext());
+		super.tearDown();
+	}
+
+	public void testSameBirthdayShownOnce() {
+		setLines(5);
+		final int today = DayClock.get().today;
+		final Style once = newStyle();
+		once.addEvent(birthday(today, "Anton", 1));
+		once.addEvent(birthday(today + 1, "Anna", 1));
+
+		final Style twice = newStyle();
+		twice.addEvent(birthday(today, "Anton", 1));
+		twice.addEvent(birthday(today, "Anton", 2));
+		twice.addEvent(birthday(today + 1, "Anna", 2));
+		twice.addEvent(birthday(today + 1, "Anna", 1));
+		assertEquals(once.getFingerprint(), twice.getFingerprint());
+	}
+
+	/**
+	 * Reports the time Style takes to add the birthdays of each number of
+	 * contacts, which should grow linearly, next to the linear search that
+	 * was used before
+	 */
+	public void testBirthdayBenchmark() {
+		final int today = DayClock.get().today;
+		for (final int contacts : CONTACTS) {
+			// a widget large enough to show all of them
+			setLines(contacts);
+			final List<Event> birthdays = new ArrayList<Event>();
+			for (int copy = 0; copy < COPIES; copy++)
+				for (int i = 0; i < contacts; i++)
+					birthdays.add(birthday(today + i % 366, "Contact " + i,
+							copy));
+
+			long set = Long.MAX_VALUE;
+			long list = Long.MAX_VALUE;
+			for (int round = 0; round < ROUNDS; round++) {
+				long start = System.nanoTime();
+				final Style style = newStyle();
+				for (final Event birthday : birthdays)
+					style.addEvent(birthday);
+				set = Math.min(set, System.nanoTime() - start);
+
+				start = System.nanoTime();
+				final List<Event> added = new ArrayList<Event>();
+				for (final Event birthday : birthdays)
+					if (!added.contains(birthday))
+						added.add(birthday);
+				list = Math.min(list, System.nanoTime() - start);
+				assertEquals(contacts, added.size());
+			}
+			Log.i(TAG, "StyleTest: " + contacts + " contacts, "
+					+ (set / birthdays.size()) + " ns per birthday in Style, "
+					+ (list / birthdays.size()) + " ns with List.contains()");
+		}
+	}
+
+	/**
+	 * Reports the time Style takes to format the times of a page of events
+	 * in each date format, next to the String.format() calls that were used
+	 * before
+	 */
+	public void testFormatBenchmark() {
+		final DayClock.Days days = DayClock.get();
+		final Random random = new Random(1);
+		final Event[] events = new Event[EVENTS];
+		for (int i = 0; i < events.length; i++) {
+			// from next week to two years ahead, to format both lengths
+			final int day = days.today + 7 + random.nextInt(2 * 365);
+			final Event event = new Event();
+			event.startDay = day;
+			event.endDay = day;
+			event.startMillis = days.getDayStart(day)
+					+ random.nextInt(24 * 60 - 60) * 60 * 1000L;
+			event.endMillis = event.startMillis + 60 * 60 * 1000L;
+			events[i] = event;
+		}
+
+		for (final WidgetInfo.DateFormat format : WidgetInfo.DateFormat
+				.values()) {
+			TestWidget.getPreferences(getContext()).edit().putString(
+					WidgetInfo.dateFormatKey, format.toString()).putBoolean(
+					WidgetInfo.twentyfourHoursKey, true).commit();
+
+			int length = 0;
+			long labels = Long.MAX_VALUE;
+			long strings = Long.MAX_VALUE;
+			for (int round = 0; round < FORMAT_ROUNDS; round++) {
+				// a new style per round, as per refresh
+				final Style style = newStyle();
+				long start = System.nanoTime();
+				for (final Event event : events)
+					length += style.formatTime(event).length();
+				labels = Math.min(labels, System.nanoTime() - start);
+
+				start = System.nanoTime();
+				for (final Event event : events)
+					length += formatTime(event, format, days).length();
+				strings = Math.min(strings, System.nanoTime() - start);
+			}
+			assertTrue(length > 0);
+			Log.i(TAG, "StyleTest: " + format + " " + (labels / EVENTS)
+					+ " ns per event in Style, " + (strings / EVENTS)
+					+ " ns with String.format()");
+		}
+	}
+
+	/**
+	 * @return the time of the event as it was formatted before
+	 */
+	private static String formatTime(final Event event,
+			final WidgetInfo.DateFormat format, final DayClock.Days days) {
+		final long time = event.startMillis;
+		final String date;
+		if (days.yearStart <= time && time < days.yearEnd)
+			date = String.format(format.shortFormat, time);
+		else
+			date = String.format(format.longFormat, time);
+		return date + ' ' + String.format("%1$tk:%1$tM", time) + '-'
+				+ String.format("%1$tk:%1$tM", event.endMillis);
+	}
+
+	private Style newStyle() {
+		return new Style(TestWidget.getInfo(getContext()),
+				TestWidget.WIDGET_ID, getContext());
+	}
+
+	private void setLines(final int lines) {
+		TestWidget.getPreferences(getContext()).edit().putString(
+				WidgetInfo.linesKey, Integer.toString(lines)).commit();
+	}
+
+	private static Event birthday(final int day, final String name,
+			final int calendarId) {
+		final Event event = new Event();
+		event.allDay = true;
+		event.isBirthday = true;
+		event.calendarId = calendarId;
+		event.startDay = day;
+		event.endDay = day;
+		event.startMillis = (day - 2440588) * Style.DAY_IN_MILLIS;
+		event.endMillis = event.startMillis + Style.DAY_IN_MILLIS;
+		event.title = name;
+		return event;
+	}
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2011 by Anton Wolf
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.antonwolf.agendawidget;
+
+import android.appwidget.AppWidgetProviderInfo;
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Settings of a widget that is not on the home screen, for tests that need
+ * a WidgetInfo or a Style
+ * 
+ * @author Anton Wolf
+ */
+final class TestWidget {
+	/**
+	 * Far from the IDs of real widgets
+	 */
+	final static int WIDGET_ID = 1000001;
+	final static int CALENDAR_ID = 1;
+	/**
+	 * The size of a 4x4 widget in dp
+	 */
+	private final static int SIZE = 294;
+
+	private TestWidget() {
+	}
+
+	/**
+	 * @return the settings of the test widget, to be changed before
+	 *         {@link #getInfo(Context)}
+	 */
+	static SharedPreferences getPreferences(final Context context) {
+		return context.getSharedPreferences(WidgetInfo
+				.getSharedPreferencesName(WIDGET_ID), Context.MODE_PRIVATE);
+	}
+
+	/**
+	 * @return the settings of a 4x4 widget showing a single calendar
+	 */
+	static WidgetInfo getInfo(final Context context) {
+		final float density = context.getResources().getDisplayMetrics()
+				.density;
+		final AppWidgetProviderInfo provider = new AppWidgetProviderInfo();
+		provider.minWidth = (int) (SIZE * density);
+		provider.minHeight = (int) (SIZE * density);
+
+		final CalendarCache.Calendars calendars = new CalendarCache.Calendars(
+				1);
+		calendars.ids[0] = CALENDAR_ID;
+		calendars.displayNames[0] = "Test";
+		calendars.colors[0] = 0xff0000;
+		return new WidgetInfo(WIDGET_ID, getPreferences(context), context
+				.getResources(), provider, density, calendars);
+	}
+
+	static void delete(final Context context) {
+		getPreferences(context).edit().clear().commit();
+	}
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2011 by Anton Wolf
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.antonwolf.agendawidget;
+
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import junit.framework.TestCase;
+import android.util.Log;
+
+/**
+ * Checks the minute labels against String.format() on a calendar of the
+ * time zone, as the times were formatted before.
+ * 
+ * @author Anton Wolf
+ */
+public class TimeLabelsTest extends TestCase {
+	private final static String TAG = "AgendaWidget";
+	private final static Locale[] LOCALES = { Locale.US, Locale.GERMANY,
+			Locale.FRANCE, Locale.JAPAN };
+	private final static String[] TIME_ZONES = { "UTC", "Europe/Berlin",
+			"America/New_York", "Asia/Kolkata", "Australia/Lord_Howe" };
+	private final static int TIMES = 2000;
+	private final static int ROUNDS = 5;
+
+	private Locale locale;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		locale = Locale.getDefault();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		Locale.setDefault(locale);
+		super.tearDown();
+	}
+
+	public void testLabelsEqualFormat() {
+		final Random random = new Random(1);
+		for (final Locale locale : LOCALES) {
+			Locale.setDefault(locale);
+			for (final String id : TIME_ZONES) {
+				final TimeZone timeZone = TimeZone.getTimeZone(id);
+				final Calendar calendar = Calendar.getInstance(timeZone);
+				for (int i = 0; i < TIMES; i++) {
+					// any minute between 1970 and 2038
+					final long time = (random.nextInt() & Integer.MAX_VALUE)
+							* 1000L;
+					calendar.setTimeInMillis(time);
+					final int minute = TimeLabels.getMinuteOfDay(time,
+							timeZone.getOffset(time));
+					final String message = locale + " " + id + " " + time;
+					assertEquals(message, String.format("%1$tk:%1$tM",
+							calendar), TimeLabels.get24Hours(minute));
+					assertEquals(message, String.format("%1$tl:%1$tM",
+							calendar), TimeLabels.get12Hours(minute));
+					assertEquals(message, String.format("%1$tp", calendar),
+							TimeLabels.getAmPm(minute));
+				}
+			}
+		}
+	}
+
+	public void testMinuteOfDayBeforeEpoch() {
+		assertEquals(24 * 60 - 1, TimeLabels.getMinuteOfDay(-1, 0));
+		assertEquals(60, TimeLabels.getMinuteOfDay(-23 * 3600 * 1000L, 0));
+		assertEquals(0, TimeLabels.getMinuteOfDay(0, 0));
+		assertEquals(5 * 60 + 30, TimeLabels.getMinuteOfDay(0,
+				(5 * 60 + 30) * 60 * 1000));
+	}
+
+	/**
+	 * Reports the time the minute labels take next to String.format(), which
+	 * was used before; the numbers are logged, not asserted, as they vary
+	 * with the device and its load
+	 */
+	public void testLabelsBenchmark() {
+		final TimeZone timeZone = TimeZone.getTimeZone("Europe/Berlin");
+		final Calendar calendar = Calendar.getInstance(timeZone);
+		final long[] times = new long[TIMES];
+		final Random random = new Random(1);
+		for (int i = 0; i < times.length; i++)
+			times[i] = (random.nextInt() & Integer.MAX_VALUE) * 1000L;
+
+		int length = 0;
+		long format24 = Long.MAX_VALUE;
+		long format12 = Long.MAX_VALUE;
+		long labels24 = Long.MAX_VALUE;
+		long labels12 = Long.MAX_VALUE;
+		// the first round warms up both paths and fills the tables
+		for (int round = 0; round < ROUNDS; round++) {
+			long start = System.nanoTime();
+			for (final long time : times) {
+				calendar.setTimeInMillis(time);
+				length += String.format("%1$tk:%1$tM", calendar).length();
+			}
+			format24 = Math.min(format24, System.nanoTime() - start);
+
+			start = System.nanoTime();
+			for (final long time : times) {
+				calendar.setTimeInMillis(time);
+				length += String.format("%1$tl:%1$tM", calendar).length();
+				length += String.format("%1$tp", calendar).length();
+			}
+			format12 = Math.min(format12, System.nanoTime() - start);
+
+			start = System.nanoTime();
+			for (final long time : times)
+				length += TimeLabels.get24Hours(
+						TimeLabels.getMinuteOfDay(time,
+								timeZone.getOffset(time))).length();
+			labels24 = Math.min(labels24, System.nanoTime() - start);
+
+			start = System.nanoTime();
+			for (final long time : times) {
+				final int minute = TimeLabels.getMinuteOfDay(time,
+						timeZone.getOffset(time));
+				length += TimeLabels.get12Hours(minute).length();
+				length += TimeLabels.getAmPm(minute).length();
+			}
+			labels12 = Math.min(labels12, System.nanoTime() - start);
+		}
+
+		assertTrue(length > 0);
+		Log.i(TAG, "TimeLabelsTest: 24 hours " + (labels24 / TIMES)
+				+ " ns per label, " + (format24 / TIMES)
+				+ " ns with String.format()");
+		Log.i(TAG, "TimeLabelsTest: 12 hours " + (labels12 / TIMES)
+				+ " ns per label, " + (format12 / TIMES)
+				+ " ns with String.format()");
+	}
+}